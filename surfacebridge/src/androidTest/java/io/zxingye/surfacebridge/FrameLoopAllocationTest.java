@@ -0,0 +1,225 @@
+package io.zxingye.surfacebridge;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import android.graphics.PixelFormat;
+import android.media.Image;
+import android.media.ImageReader;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.opengl.Matrix;
+import android.os.Debug;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Size;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 稳定状态下帧循环的内存分配测试。EglCore在测试线程中创建，没有窗口，由ImageReader和PBO作为输出，
+ * 预热之后连续绘制1000帧，用Debug的线程分配计数统计期间创建的对象数。
+ */
+@RunWith(AndroidJUnit4.class)
+@SuppressWarnings("deprecation")
+public class FrameLoopAllocationTest {
+
+    private static final int WARM_UP_FRAMES = 60;
+    private static final int MEASURE_FRAMES = 1000;
+    private static final long FRAME_INTERVAL_NS = 16_666_667L;
+    private static final Size TEXTURE_SIZE = new Size(640, 480);
+    private static final Size OUTPUT_SIZE = new Size(320, 240);
+    // acquireLatestImage每次丢弃的帧数不固定，每帧的分配数会有少量波动
+    private static final float ALLOCATION_TOLERANCE_PER_FRAME = 0.5f;
+
+    private final float[] texMatrix = new float[16];
+    private HandlerThread dispatchThread;
+    private Handler dispatchHandler;
+    private EglCore eglCore;
+    private int texId;
+    private long timestampNs;
+
+    @Before
+    public void setUp() {
+        dispatchThread = new HandlerThread("FrameLoopAllocationTest");
+        dispatchThread.start();
+        dispatchHandler = new Handler(dispatchThread.getLooper());
+        eglCore = EglCore.create(null);
+        assertNotNull("create EglCore fail", eglCore);
+        texId = eglCore.createOESTextureObject();
+        Matrix.setIdentityM(texMatrix, 0);
+        timestampNs = 1;
+    }
+
+    @After
+    public void tearDown() {
+        if (eglCore != null) {
+            eglCore.deleteOESTextureObject(texId);
+            eglCore.close();
+        }
+        dispatchThread.quitSafely();
+    }
+
+    /**
+     * GL线程中绘制和读取的循环：ImageReader输出走eglSwapBuffers，PBO输出走glReadPixels、fence轮询和映射分发。
+     * 唯一允许的分配是GLES30.glMapBufferRange每次返回的新ByteBuffer，它由系统创建，库中无法复用
+     */
+    @Test
+    public void drawLoopDoesNotAllocate() {
+        EglFrameReader imageReader = eglCore.createFrameReader(FrameFormat.RGBA_8888, OUTPUT_SIZE,
+                new FrameReaderConfig.Builder()
+                        .setBackend(FrameReaderConfig.Backend.IMAGE_READER)
+                        .setMaxImages(3)
+                        .build());
+        assertNotNull(imageReader);
+        imageReader.setOnFrameImageListener(FrameImage::release, dispatchHandler);
+        eglCore.putFrameReader(imageReader, null);
+
+        AtomicInteger pixelFrameCount = new AtomicInteger();
+        EglFrameReader pixelReader = eglCore.createFrameReader(FrameFormat.NV21, OUTPUT_SIZE,
+                new FrameReaderConfig.Builder()
+                        .setBackend(FrameReaderConfig.Backend.PIXEL_BUFFER)
+                        .build());
+        assertNotNull(pixelReader);
+        pixelReader.setOnFrameListener((frame, resolution, format) -> pixelFrameCount.incrementAndGet(),
+                dispatchHandler);
+        eglCore.putFrameReader(pixelReader, null);
+
+        try {
+            drawFrames(WARM_UP_FRAMES);
+            int mapAllocCount = countMapBufferAllocations();
+            syncDispatchThread();
+            int startPixelFrameCount = pixelFrameCount.get();
+
+            Debug.resetThreadAllocCount();
+            Debug.startAllocCounting();
+            drawFrames(MEASURE_FRAMES);
+            Debug.stopAllocCounting();
+            int allocCount = Debug.getThreadAllocCount();
+
+            syncDispatchThread();
+            int mappedFrames = pixelFrameCount.get() - startPixelFrameCount;
+            assertTrue("draw loop allocated " + allocCount + " objects in " + MEASURE_FRAMES
+                            + " frames, mappedFrames = " + mappedFrames + ", mapAllocCount = " + mapAllocCount,
+                    allocCount <= mappedFrames * mapAllocCount);
+        } finally {
+            eglCore.removeFrameReader(imageReader);
+            eglCore.removeFrameReader(pixelReader);
+            imageReader.close();
+            pixelReader.close();
+        }
+    }
+
+    /**
+     * 零拷贝回调的分发线程：和直接使用ImageReader相比，每帧只允许多创建FrameImage本身
+     */
+    @Test
+    public void frameImageLeaseAllocatesOnlyFrameImage() {
+        AtomicInteger rawFrameCount = new AtomicInteger();
+        ImageReader rawReader = ImageReader.newInstance(OUTPUT_SIZE.getWidth(), OUTPUT_SIZE.getHeight(),
+                PixelFormat.RGBA_8888, 3);
+        rawReader.setOnImageAvailableListener(reader -> {
+            Image image = reader.acquireLatestImage();
+            if (image != null) {
+                rawFrameCount.incrementAndGet();
+                image.close();
+            }
+        }, dispatchHandler);
+        eglCore.putSurface(rawReader.getSurface(), OUTPUT_SIZE, null);
+        float rawAllocPerFrame;
+        try {
+            rawAllocPerFrame = measureDispatchAllocations(rawFrameCount);
+        } finally {
+            eglCore.removeSurface(rawReader.getSurface());
+            rawReader.close();
+        }
+
+        AtomicInteger leaseFrameCount = new AtomicInteger();
+        EglFrameReader imageReader = eglCore.createFrameReader(FrameFormat.RGBA_8888, OUTPUT_SIZE,
+                new FrameReaderConfig.Builder()
+                        .setBackend(FrameReaderConfig.Backend.IMAGE_READER)
+                        .setMaxImages(3)
+                        .build());
+        assertNotNull(imageReader);
+        imageReader.setOnFrameImageListener(frame -> {
+            leaseFrameCount.incrementAndGet();
+            frame.release();
+        }, dispatchHandler);
+        eglCore.putFrameReader(imageReader, null);
+        float leaseAllocPerFrame;
+        try {
+            leaseAllocPerFrame = measureDispatchAllocations(leaseFrameCount);
+        } finally {
+            eglCore.removeFrameReader(imageReader);
+            imageReader.close();
+        }
+
+        assertTrue("lease path allocated " + leaseAllocPerFrame + " objects per frame, raw ImageReader = "
+                        + rawAllocPerFrame,
+                leaseAllocPerFrame <= rawAllocPerFrame + 1 + ALLOCATION_TOLERANCE_PER_FRAME);
+    }
+
+    /**
+     * @return 分发线程中平均每帧创建的对象数
+     */
+    private float measureDispatchAllocations(AtomicInteger frameCount) {
+        drawFrames(WARM_UP_FRAMES);
+        syncDispatchThread();
+        int startFrameCount = frameCount.get();
+        Debug.startAllocCounting();
+        Util.runOn(dispatchHandler, Debug::resetThreadAllocCount, true);
+        drawFrames(MEASURE_FRAMES);
+        syncDispatchThread();
+        int[] allocCount = new int[1];
+        Util.runOn(dispatchHandler, () -> allocCount[0] = Debug.getThreadAllocCount(), true);
+        Debug.stopAllocCounting();
+        int frames = frameCount.get() - startFrameCount;
+        assertTrue("no frame is dispatched", frames > 0);
+        return (float) allocCount[0] / frames;
+    }
+
+    private void drawFrames(int count) {
+        for (int i = 0; i < count; i++) {
+            eglCore.drawOESTexture(texId, TEXTURE_SIZE, texMatrix, timestampNs);
+            timestampNs += FRAME_INTERVAL_NS;
+        }
+    }
+
+    /**
+     * 等待GPU完成已经提交的帧，并等待分发线程处理完已经收到的回调
+     */
+    private void syncDispatchThread() {
+        GLES20.glFinish();
+        eglCore.drawOESTexture(texId, TEXTURE_SIZE, texMatrix, timestampNs);
+        timestampNs += FRAME_INTERVAL_NS;
+        GLES20.glFinish();
+        Util.runOn(dispatchHandler, () -> {
+        }, true);
+    }
+
+    /**
+     * @return 一次glMapBufferRange和glUnmapBuffer创建的对象数，由系统的JNI实现决定
+     */
+    private static int countMapBufferAllocations() {
+        int bufferId = EglTool.createPixelPackBuffer(16);
+        try {
+            GLES20.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, bufferId);
+            Debug.resetThreadAllocCount();
+            Debug.startAllocCounting();
+            GLES30.glMapBufferRange(GLES30.GL_PIXEL_PACK_BUFFER, 0, 16, GLES30.GL_MAP_READ_BIT);
+            GLES30.glUnmapBuffer(GLES30.GL_PIXEL_PACK_BUFFER);
+            Debug.stopAllocCounting();
+            return Debug.getThreadAllocCount();
+        } finally {
+            GLES20.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, GLES20.GL_NONE);
+            EglTool.deleteBo(bufferId);
+        }
+    }
+}
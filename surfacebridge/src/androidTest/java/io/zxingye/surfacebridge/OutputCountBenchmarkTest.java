@@ -0,0 +1,126 @@
+package io.zxingye.surfacebridge;
+
+import static org.junit.Assert.assertNotNull;
+
+import android.opengl.GLES20;
+import android.opengl.Matrix;
+import android.util.Log;
+import android.util.Size;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 1个和8个输出时每帧的耗时，只打印结果，不做通过与否的判断，GPU的频率和温度会让耗时在不同设备、不同次运行间波动。
+ * 开启中间纹理，纹理矩阵的UBO在每帧中更新两次，且更新时之前的绘制还在执行。
+ * 覆盖还在使用的buffer时驱动的隐式同步发生在CPU侧，所以主要指标是drawOESTexture的CPU耗时；
+ * 每次绘制的GPU执行耗时由{@link EglGpuTimer}统计，设备不支持GL_EXT_disjoint_timer_query时只打印CPU耗时。
+ */
+@RunWith(AndroidJUnit4.class)
+public class OutputCountBenchmarkTest {
+
+    private static final String TAG = "OutputCountBenchmark";
+
+    private static final int WARM_UP_FRAMES = 30;
+    private static final int MEASURE_FRAMES = GpuTimeStats.WINDOW_SIZE;
+    private static final long FRAME_INTERVAL_NS = 16_666_667L;
+    private static final Size TEXTURE_SIZE = new Size(1920, 1080);
+    private static final Size OUTPUT_SIZE = new Size(1280, 720);
+
+    private final float[] texMatrix = new float[16];
+    private final long[] frameTimeNs = new long[MEASURE_FRAMES];
+    private boolean isGpuTimerEnabled;
+    private EglCore eglCore;
+    private int texId;
+    private long timestampNs;
+
+    @Before
+    public void setUp() {
+        eglCore = EglCore.create(null);
+        assertNotNull("create EglCore fail", eglCore);
+        isGpuTimerEnabled = eglCore.setGpuTimerEnabled(true);
+        eglCore.setIntermediateTextureEnabled(true);
+        texId = eglCore.createOESTextureObject();
+        Matrix.setIdentityM(texMatrix, 0);
+        timestampNs = 1;
+    }
+
+    @After
+    public void tearDown() {
+        if (eglCore != null) {
+            eglCore.deleteOESTextureObject(texId);
+            eglCore.close();
+        }
+    }
+
+    @Test
+    public void benchmarkOutputCount() {
+        long singleCpuP50Ns = measure(1);
+        long multipleCpuP50Ns = measure(8);
+        Log.i(TAG, "drawOESTexture cpu p50 per output: 1 output = " + singleCpuP50Ns
+                + "ns, 8 outputs = " + multipleCpuP50Ns / 8 + "ns");
+    }
+
+    /**
+     * @return drawOESTexture的CPU耗时的p50
+     */
+    private long measure(int outputCount) {
+        List<EglFrameReader> readers = new ArrayList<>();
+        try {
+            for (int i = 0; i < outputCount; i++) {
+                EglFrameReader reader = eglCore.createFrameReader(FrameFormat.RGBA_8888, OUTPUT_SIZE,
+                        new FrameReaderConfig.Builder()
+                                .setBackend(FrameReaderConfig.Backend.PIXEL_BUFFER)
+                                .build());
+                assertNotNull(reader);
+                readers.add(reader);
+                // 读取器需要统计对象才会按输出计时
+                eglCore.putFrameReader(reader, null, new FrameReaderStats());
+            }
+            for (int i = 0; i < WARM_UP_FRAMES; i++) {
+                drawFrame();
+            }
+            for (int i = 0; i < MEASURE_FRAMES; i++) {
+                long startNs = System.nanoTime();
+                drawFrame();
+                frameTimeNs[i] = System.nanoTime() - startNs;
+            }
+            GLES20.glFinish();
+            Arrays.sort(frameTimeNs);
+            long cpuP50Ns = frameTimeNs[MEASURE_FRAMES / 2];
+            Log.i(TAG, "outputCount = " + outputCount + ", drawOESTexture cpu p50 = " + cpuP50Ns
+                    + "ns, p90 = " + frameTimeNs[MEASURE_FRAMES * 9 / 10]
+                    + "ns, max = " + frameTimeNs[MEASURE_FRAMES - 1] + "ns");
+
+            if (isGpuTimerEnabled) {
+                eglCore.pollGpuTimer();
+                Map<Object, GpuTimeStats> outputStats = eglCore.getGpuTimer().snapshotOutputs();
+                for (GpuTimeStats stats : outputStats.values()) {
+                    Log.i(TAG, "outputCount = " + outputCount + ", gpu " + stats);
+                }
+                Log.i(TAG, "outputCount = " + outputCount + ", gpu formats = "
+                        + eglCore.getGpuTimer().snapshotFormats());
+            }
+            return cpuP50Ns;
+        } finally {
+            for (EglFrameReader reader : readers) {
+                eglCore.removeFrameReader(reader);
+                reader.close();
+            }
+        }
+    }
+
+    private void drawFrame() {
+        eglCore.drawOESTexture(texId, TEXTURE_SIZE, texMatrix, timestampNs);
+        timestampNs += FRAME_INTERVAL_NS;
+    }
+}
@@ -0,0 +1,93 @@
+package io.zxingye.surfacebridge;
+
+/**
+ * GL命令队列的统计，用于衡量配置修改对GL线程和调用线程的影响。
+ * 等待时间指命令从提交到开始执行的耗时。所有数据可以在任意线程读取。
+ */
+public class CommandQueueStats {
+
+    private volatile int pendingCount;
+    private volatile int maxPendingCount;
+    private volatile long executedCount;
+    private volatile long coalescedCount;
+    private volatile long totalWaitTimeNs;
+    private volatile long maxWaitTimeNs;
+
+    /**
+     * @return 当前还在排队的命令数
+     */
+    public int getPendingCount() {
+        return pendingCount;
+    }
+
+    /**
+     * @return 排队命令数的最大值
+     */
+    public int getMaxPendingCount() {
+        return maxPendingCount;
+    }
+
+    /**
+     * @return 已经执行的命令数，不包括被合并掉的命令
+     */
+    public long getExecutedCount() {
+        return executedCount;
+    }
+
+    /**
+     * @return 被后续相同的命令合并掉、没有实际执行的命令数
+     */
+    public long getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    /**
+     * @return 所有命令累计的等待时间，单位纳秒
+     */
+    public long getTotalWaitTimeNs() {
+        return totalWaitTimeNs;
+    }
+
+    /**
+     * @return 单个命令的最大等待时间，单位纳秒
+     */
+    public long getMaxWaitTimeNs() {
+        return maxWaitTimeNs;
+    }
+
+    public long getAverageWaitTimeNs() {
+        long count = executedCount;
+        return count > 0 ? totalWaitTimeNs / count : 0;
+    }
+
+    synchronized void onPendingCountChange(int pendingCount) {
+        this.pendingCount = pendingCount;
+        if (pendingCount > maxPendingCount) {
+            maxPendingCount = pendingCount;
+        }
+    }
+
+    synchronized void onCoalesced() {
+        coalescedCount++;
+    }
+
+    synchronized void onExecute(long waitTimeNs) {
+        executedCount++;
+        totalWaitTimeNs += waitTimeNs;
+        if (waitTimeNs > maxWaitTimeNs) {
+            maxWaitTimeNs = waitTimeNs;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CommandQueueStats{" +
+                "pendingCount=" + pendingCount +
+                ", maxPendingCount=" + maxPendingCount +
+                ", executedCount=" + executedCount +
+                ", coalescedCount=" + coalescedCount +
+                ", totalWaitTimeNs=" + totalWaitTimeNs +
+                ", maxWaitTimeNs=" + maxWaitTimeNs +
+                '}';
+    }
+}
@@ -31,17 +31,19 @@ public class EglBufferObjectHolder implements AutoCloseable {
 
     private static final int DEFAULT_DIMENSIONAL = 2;
 
+    // 纹理矩阵每帧会更新1~2次，16个slot足够覆盖GPU上还没执行完的几帧
+    private static final int TEX_MATRIX_SLOT_COUNT = 16;
+
     private final FloatBuffer vertexCoordBuffer;
     private final FloatBuffer texCoordBuffer;
     private final FloatBuffer mvpMatrixBuffer;
-    private final FloatBuffer texMatrixBuffer;
 
     private final int dimensional;
 
     private int vertexCoordVbo;
     private int texCoordVbo;
     private int mvpMatrixUbo;
-    private int texMatrixUbo;
+    private EglStreamBuffer texMatrixStream;
 
     public EglBufferObjectHolder() {
         this(DEFAULT_DIMENSIONAL);
@@ -56,12 +58,11 @@ public class EglBufferObjectHolder implements AutoCloseable {
             vertexCoordBuffer = EglTool.createFloatBuffer(DEFAULT_VERTEX_COORDS);
             texCoordBuffer = EglTool.createFloatBuffer(DEFAULT_TEX_COORDS);
             mvpMatrixBuffer = EglTool.createFloatBuffer(IDENTITY_MATRIX);
-            texMatrixBuffer = EglTool.createFloatBuffer(IDENTITY_MATRIX);
 
-            vertexCoordVbo = EglTool.createVbo(vertexCoordBuffer, GLES20.GL_STREAM_DRAW);
-            texCoordVbo = EglTool.createVbo(texCoordBuffer, GLES20.GL_STREAM_DRAW);
-            mvpMatrixUbo = EglTool.createUbo(mvpMatrixBuffer, GLES20.GL_STREAM_DRAW);
-            texMatrixUbo = EglTool.createUbo(texMatrixBuffer, GLES20.GL_STREAM_DRAW);
+            vertexCoordVbo = EglTool.createVbo(vertexCoordBuffer, GLES20.GL_STATIC_DRAW);
+            texCoordVbo = EglTool.createVbo(texCoordBuffer, GLES20.GL_STATIC_DRAW);
+            mvpMatrixUbo = EglTool.createUbo(mvpMatrixBuffer, GLES20.GL_STATIC_DRAW);
+            texMatrixStream = new EglStreamBuffer(IDENTITY_MATRIX.length, TEX_MATRIX_SLOT_COUNT, IDENTITY_MATRIX);
         } catch (Throwable e) {
             close();
             throw e;
@@ -79,8 +80,10 @@ public class EglBufferObjectHolder implements AutoCloseable {
         EglTool.deleteBo(mvpMatrixUbo);
         mvpMatrixUbo = 0;
 
-        EglTool.deleteBo(texMatrixUbo);
-        texMatrixUbo = 0;
+        if (texMatrixStream != null) {
+            texMatrixStream.close();
+            texMatrixStream = null;
+        }
     }
 
     public void updateVertexCoordinate(float[] vertexCoordinate) {
@@ -96,7 +99,7 @@ public class EglBufferObjectHolder implements AutoCloseable {
     }
 
     public void updateTexMatrixUbo(float[] texMatrix) {
-        EglTool.updateBo(GLES30.GL_UNIFORM_BUFFER, texMatrixUbo, texMatrixBuffer, texMatrix);
+        texMatrixStream.update(texMatrix);
     }
 
     public void bindVertexVboPointer(int vaoId, int vertexAttribIndex) {
@@ -112,7 +115,7 @@ public class EglBufferObjectHolder implements AutoCloseable {
     }
 
     public void bindTexMatrixUbo(int shaderId, int blockIndex) {
-        EglTool.bindUboBindingIndex(shaderId, blockIndex, texMatrixUbo);
+        EglTool.bindUboBindingIndex(shaderId, blockIndex, texMatrixStream.getBufferId());
     }
 
     public int getVertexCount() {
@@ -0,0 +1,146 @@
+package io.zxingye.surfacebridge;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * GL线程的命令队列，代替每个命令单独post一个Handler消息、再轮询等待的方式。
+ * <p>
+ * 队列从空变为非空时只post一次消息，批量执行所有排队的命令；绘制线程在每帧绘制前也会执行所有排队的命令。
+ * 提交时可以指定合并的key，相同key的命令还在排队时，旧命令会被移除，新命令放到队尾，并沿用旧命令的future。
+ * <p>
+ * 在GL线程中提交的命令会立即执行。
+ */
+class EglCommandQueue {
+
+    private static final String TAG = "EglCommandQueue";
+
+    private final Handler handler;
+    private final ArrayDeque<Command> queue = new ArrayDeque<>();
+    private final Map<Object, Command> keyMap = new HashMap<>();
+    private final CommandQueueStats stats = new CommandQueueStats();
+    private final Runnable drainRunnable = this::drain;
+    private boolean isDrainScheduled;
+    private boolean isClosed;
+
+    EglCommandQueue(Handler handler) {
+        this.handler = handler;
+    }
+
+    EglFuture<Void> post(Runnable runnable) {
+        return post(null, runnable);
+    }
+
+    /**
+     * @param key 合并的key，为null时不合并
+     */
+    EglFuture<Void> post(Object key, Runnable runnable) {
+        boolean isGlThread = Looper.myLooper() == handler.getLooper();
+        Command command;
+        boolean scheduleDrain = false;
+        synchronized (this) {
+            Command old = key != null ? keyMap.remove(key) : null;
+            if (old != null) {
+                queue.remove(old);
+                stats.onCoalesced();
+            }
+            command = old != null
+                    ? new Command(key, runnable, old.future, old.enqueueTimeNs)
+                    : new Command(key, runnable, new EglFuture<>(), System.nanoTime());
+            if (isClosed) {
+                command.future.cancel(false);
+                return command.future;
+            }
+            if (!isGlThread) {
+                queue.add(command);
+                if (key != null) {
+                    keyMap.put(key, command);
+                }
+                if (!isDrainScheduled) {
+                    isDrainScheduled = true;
+                    scheduleDrain = true;
+                }
+            }
+            stats.onPendingCountChange(queue.size());
+        }
+        if (isGlThread) {
+            execute(command);
+        } else if (scheduleDrain && !handler.post(drainRunnable)) {
+            Log.w(TAG, "post fail: gl thread is not alive");
+            close();
+        }
+        return command.future;
+    }
+
+    /**
+     * 在GL线程中执行所有排队的命令
+     */
+    void drain() {
+        while (true) {
+            Command command;
+            synchronized (this) {
+                command = queue.poll();
+                if (command == null) {
+                    isDrainScheduled = false;
+                    return;
+                }
+                if (command.key != null) {
+                    keyMap.remove(command.key);
+                }
+                stats.onPendingCountChange(queue.size());
+            }
+            execute(command);
+        }
+    }
+
+    /**
+     * 关闭队列，还在排队的命令都会被取消，之后提交的命令也会直接取消
+     */
+    void close() {
+        Command[] pending;
+        synchronized (this) {
+            isClosed = true;
+            pending = queue.toArray(new Command[0]);
+            queue.clear();
+            keyMap.clear();
+            stats.onPendingCountChange(0);
+        }
+        for (Command command : pending) {
+            command.future.cancel(false);
+        }
+    }
+
+    CommandQueueStats getStats() {
+        return stats;
+    }
+
+    private void execute(Command command) {
+        stats.onExecute(System.nanoTime() - command.enqueueTimeNs);
+        try {
+            command.runnable.run();
+            command.future.complete(null);
+        } catch (Throwable e) {
+            Log.w(TAG, "execute command fail: " + e, e);
+            command.future.completeExceptionally(e);
+        }
+    }
+
+    private static class Command {
+        final Object key;
+        final Runnable runnable;
+        final EglFuture<Void> future;
+        final long enqueueTimeNs;
+
+        Command(Object key, Runnable runnable, EglFuture<Void> future, long enqueueTimeNs) {
+            this.key = key;
+            this.runnable = runnable;
+            this.future = future;
+            this.enqueueTimeNs = enqueueTimeNs;
+        }
+    }
+}
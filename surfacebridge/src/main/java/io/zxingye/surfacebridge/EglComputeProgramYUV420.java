@@ -0,0 +1,244 @@
+package io.zxingye.surfacebridge;
+
+import android.graphics.Color;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.opengl.GLES31;
+import android.util.Size;
+
+/**
+ * 基于计算着色器（GLES 3.1）的YUV420转换，一次dispatch把Y、U、V全部写入SSBO。
+ * <p>
+ * 每个工作组负责原图中 16x16 的像素块：先由每个线程采样一个像素写入共享内存，
+ * 再从共享内存中计算Y和色度，每个像素只采样一次，色度直接复用这4个像素的采样结果。
+ * <p>
+ * 要求输出的宽是8的倍数、高是2的倍数，不满足时由{@link EglCore}退回片元着色器的实现。
+ */
+public class EglComputeProgramYUV420 implements AutoCloseable {
+
+    private static final int TILE_SIZE = 16;
+    private static final int STORAGE_BINDING = 0;
+
+    private final FrameFormat format;
+    private final float[] pixelToQuadMatrix = new float[9];
+    private int programId;
+    private final int pixelToQuadLoc;
+    private final int sizeLoc;
+    private final int layoutLoc;
+    private final int backgroundLoc;
+    private final int coefYLoc;
+    private final int coefULoc;
+    private final int coefVLoc;
+
+    public EglComputeProgramYUV420(EglBufferObjectHolder eglBOHolder, FrameFormat format, int textureTarget) {
+        if (format != FrameFormat.NV12 && format != FrameFormat.NV21
+                && format != FrameFormat.YU12 && format != FrameFormat.YV12) {
+            throw new IllegalArgumentException("format is not supported: " + format);
+        }
+        this.format = format;
+        try {
+            programId = EglTool.createComputeProgram(textureTarget == GLES20.GL_TEXTURE_2D
+                    ? EglTool.toTexture2DShader(COMPUTE_SHADER_RGB_TO_YUV420)
+                    : COMPUTE_SHADER_RGB_TO_YUV420);
+            eglBOHolder.bindTexMatrixUbo(programId, GLES30.glGetUniformBlockIndex(programId, "TexMatrix"));
+            pixelToQuadLoc = GLES20.glGetUniformLocation(programId, "u_PixelToQuad");
+            sizeLoc = GLES20.glGetUniformLocation(programId, "u_Size");
+            layoutLoc = GLES20.glGetUniformLocation(programId, "u_Layout");
+            backgroundLoc = GLES20.glGetUniformLocation(programId, "u_Background");
+            coefYLoc = GLES20.glGetUniformLocation(programId, "COEF_Y");
+            coefULoc = GLES20.glGetUniformLocation(programId, "COEF_U");
+            coefVLoc = GLES20.glGetUniformLocation(programId, "COEF_V");
+            setYuvColorSpace(EglYUVColorSpace.BT_709);
+        } catch (Exception e) {
+            close();
+            throw e;
+        }
+    }
+
+    public int getProgramId() {
+        return programId;
+    }
+
+    @Override
+    public void close() {
+        EglTool.deleteProgram(programId);
+        programId = 0;
+    }
+
+    public FrameFormat getFrameFormat() {
+        return format;
+    }
+
+    public void setYuvColorSpace(EglYUVColorSpace colorSpace) {
+        EglProgramYUV.applyYuvColorSpace(programId, coefYLoc, coefULoc, coefVLoc, colorSpace);
+    }
+
+    public boolean isSizeSupported(Size size) {
+        return size.getWidth() > 0 && size.getHeight() > 0
+                && size.getWidth() % 8 == 0 && size.getHeight() % 2 == 0;
+    }
+
+    public EglFrameReader createEglFrameReader(Size size, FrameReaderConfig config) {
+        return EglPixelBufferFrameReader.createStorageReader(
+                size.getWidth() * size.getHeight() * 3 / 2,
+                config.getMaxImages(),
+                format,
+                size,
+                config.isDirectBuffer());
+    }
+
+    /**
+     * 把当前绑定在GL_TEXTURE0上的OES纹理转换后写入reader的下一个缓冲区
+     *
+     * @param vertex 和片元着色器实现相同的顶点坐标（NDC），依次对应纹理坐标(0,0)、(1,0)、(0,1)、(1,1)
+     */
+    public void dispatch(EglPixelBufferFrameReader reader, int width, int height, float[] vertex, int backgroundColor) {
+        if (!updatePixelToQuadMatrix(width, height, vertex)) {
+            return;
+        }
+        if (!reader.bindStorageBuffer(STORAGE_BINDING)) {
+            return;
+        }
+        EglTool.setShaderProgram(programId);
+        GLES20.glUniformMatrix3fv(pixelToQuadLoc, 1, false, pixelToQuadMatrix, 0);
+        GLES20.glUniform2i(sizeLoc, width, height);
+        // 偏移量以uint（4字节）为单位
+        int lumaWords = width * height / 4;
+        int chromaWords = lumaWords / 4;
+        switch (format) {
+            case NV12:
+                GLES20.glUniform4i(layoutLoc, lumaWords, lumaWords, 1, 0);
+                break;
+            case NV21:
+                GLES20.glUniform4i(layoutLoc, lumaWords, lumaWords, 1, 1);
+                break;
+            case YU12:
+                GLES20.glUniform4i(layoutLoc, lumaWords, lumaWords + chromaWords, 0, 0);
+                break;
+            case YV12:
+                GLES20.glUniform4i(layoutLoc, lumaWords + chromaWords, lumaWords, 0, 0);
+                break;
+        }
+        GLES20.glUniform3f(backgroundLoc,
+                Color.red(backgroundColor) / 255f,
+                Color.green(backgroundColor) / 255f,
+                Color.blue(backgroundColor) / 255f);
+        GLES31.glDispatchCompute((width + TILE_SIZE - 1) / TILE_SIZE, (height + TILE_SIZE - 1) / TILE_SIZE, 1);
+        reader.commitStorageBuffer(STORAGE_BINDING);
+    }
+
+    /**
+     * 计算从输出像素坐标（左上角为原点）到纹理四边形坐标的仿射矩阵，即顶点变换的逆变换
+     */
+    private boolean updatePixelToQuadMatrix(int width, int height, float[] vertex) {
+        float ax = vertex[2] - vertex[0];
+        float ay = vertex[3] - vertex[1];
+        float bx = vertex[4] - vertex[0];
+        float by = vertex[5] - vertex[1];
+        float det = ax * by - bx * ay;
+        if (Math.abs(det) < 1e-6f) {
+            return false;
+        }
+        float dx = -1f - vertex[0];
+        float dy = 1f - vertex[1];
+        // 列主序
+        pixelToQuadMatrix[0] = by / det * 2f / width;
+        pixelToQuadMatrix[1] = -ay / det * 2f / width;
+        pixelToQuadMatrix[2] = 0f;
+        pixelToQuadMatrix[3] = bx / det * 2f / height;
+        pixelToQuadMatrix[4] = -ax / det * 2f / height;
+        pixelToQuadMatrix[5] = 0f;
+        pixelToQuadMatrix[6] = (by * dx - bx * dy) / det;
+        pixelToQuadMatrix[7] = (ax * dy - ay * dx) / det;
+        pixelToQuadMatrix[8] = 1f;
+        return true;
+    }
+
+    private static final String COMPUTE_SHADER_RGB_TO_YUV420 = "" +
+            "#version 310 es\n" +
+            "#extension GL_OES_EGL_image_external_essl3 : require\n" +
+            "precision highp float;\n" +
+            "precision highp int;\n" +
+            "layout(local_size_x = 16, local_size_y = 16) in;\n" +
+            "layout(std430, binding = 0) writeonly buffer FrameData\n" +
+            "{\n" +
+            "    uint data[];\n" +
+            "};\n" +
+            "layout(std140) uniform TexMatrix\n" +
+            "{\n" +
+            "    mat4 tex_matrix;\n" +
+            "};\n" +
+            "uniform mediump samplerExternalOES s_TextureMap;\n" +
+            "uniform mat3 u_PixelToQuad;\n" +
+            "uniform ivec2 u_Size;\n" +
+            "// x: U（半平面时为UV）平面的偏移，y: V平面的偏移，z: 是否为半平面，w: 半平面时是否VU交错\n" +
+            "uniform ivec4 u_Layout;\n" +
+            "uniform vec3 u_Background;\n" +
+            "uniform vec3 COEF_Y;\n" +
+            "uniform vec3 COEF_U;\n" +
+            "uniform vec3 COEF_V;\n" +
+            "shared vec3 tile[16][16];\n" +
+            "vec3 fetch(ivec2 pixel)\n" +
+            "{\n" +
+            "    vec2 quad = (u_PixelToQuad * vec3(vec2(pixel) + 0.5, 1.0)).xy;\n" +
+            "    if (any(lessThan(quad, vec2(0.0))) || any(greaterThan(quad, vec2(1.0)))) {\n" +
+            "        return u_Background;\n" +
+            "    }\n" +
+            "    return texture(s_TextureMap, (tex_matrix * vec4(quad, 0.0, 1.0)).xy).rgb;\n" +
+            "}\n" +
+            "vec2 chroma(int row, int col)\n" +
+            "{\n" +
+            "    vec3 c = (tile[row * 2][col * 2] + tile[row * 2][col * 2 + 1]\n" +
+            "            + tile[row * 2 + 1][col * 2] + tile[row * 2 + 1][col * 2 + 1]) * 0.25;\n" +
+            "    return vec2(dot(c, COEF_U), dot(c, COEF_V)) + 0.5;\n" +
+            "}\n" +
+            "void main()\n" +
+            "{\n" +
+            "    ivec2 local = ivec2(gl_LocalInvocationID.xy);\n" +
+            "    ivec2 origin = ivec2(gl_WorkGroupID.xy) * 16;\n" +
+            "    ivec2 pixel = origin + local;\n" +
+            "    tile[local.y][local.x] = all(lessThan(pixel, u_Size)) ? fetch(pixel) : vec3(0.0);\n" +
+            "    memoryBarrierShared();\n" +
+            "    barrier();\n" +
+            "    int index = int(gl_LocalInvocationIndex);\n" +
+            "    if (index < 64) {\n" +
+            "        // 每个线程写一行中连续的4个Y\n" +
+            "        int row = index / 4;\n" +
+            "        int col = (index % 4) * 4;\n" +
+            "        ivec2 p = origin + ivec2(col, row);\n" +
+            "        if (p.x < u_Size.x && p.y < u_Size.y) {\n" +
+            "            vec4 y = vec4(dot(tile[row][col], COEF_Y), dot(tile[row][col + 1], COEF_Y),\n" +
+            "                    dot(tile[row][col + 2], COEF_Y), dot(tile[row][col + 3], COEF_Y));\n" +
+            "            data[(p.y * u_Size.x + p.x) / 4] = packUnorm4x8(y);\n" +
+            "        }\n" +
+            "    } else if (index < 96) {\n" +
+            "        int i = index - 64;\n" +
+            "        if (u_Layout.z == 1) {\n" +
+            "            // 半平面：每个线程写2组交错的色度\n" +
+            "            int row = i / 4;\n" +
+            "            int col = (i % 4) * 2;\n" +
+            "            if (origin.x + col * 2 < u_Size.x && origin.y + row * 2 < u_Size.y) {\n" +
+            "                vec2 c0 = chroma(row, col);\n" +
+            "                vec2 c1 = chroma(row, col + 1);\n" +
+            "                vec4 uv = u_Layout.w == 1 ? vec4(c0.y, c0.x, c1.y, c1.x) : vec4(c0, c1);\n" +
+            "                data[u_Layout.x + ((origin.y / 2 + row) * u_Size.x + origin.x + col * 2) / 4] = packUnorm4x8(uv);\n" +
+            "            }\n" +
+            "        } else {\n" +
+            "            // 平面：前16个线程写U，后16个线程写V，每个线程写4个\n" +
+            "            bool isU = i < 16;\n" +
+            "            int j = i % 16;\n" +
+            "            int row = j / 2;\n" +
+            "            int col = (j % 2) * 4;\n" +
+            "            if (origin.x + col * 2 < u_Size.x && origin.y + row * 2 < u_Size.y) {\n" +
+            "                vec2 c0 = chroma(row, col);\n" +
+            "                vec2 c1 = chroma(row, col + 1);\n" +
+            "                vec2 c2 = chroma(row, col + 2);\n" +
+            "                vec2 c3 = chroma(row, col + 3);\n" +
+            "                vec4 plane = isU ? vec4(c0.x, c1.x, c2.x, c3.x) : vec4(c0.y, c1.y, c2.y, c3.y);\n" +
+            "                int offset = isU ? u_Layout.x : u_Layout.y;\n" +
+            "                data[offset + ((origin.y / 2 + row) * (u_Size.x / 2) + origin.x / 2 + col) / 4] = packUnorm4x8(plane);\n" +
+            "            }\n" +
+            "        }\n" +
+            "    }\n" +
+            "}";
+}
@@ -8,14 +8,21 @@ import android.opengl.EGLDisplay;
 import android.opengl.EGLSurface;
 import android.opengl.GLES11Ext;
 import android.opengl.GLES20;
+import android.opengl.GLES30;
 import android.opengl.GLException;
+import android.opengl.Matrix;
 import android.util.Log;
 import android.util.Size;
 import android.view.Surface;
 
+import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 
 import io.zxingye.surfacebridge.transform.Transform;
 
@@ -29,6 +36,14 @@ public class EglCore implements AutoCloseable {
 
     private static final String TAG = "EglHelper";
 
+    // 列主序的上下翻转矩阵：(u, v) -> (u, 1 - v)
+    private static final float[] FLIP_Y_MATRIX = {
+            1f, 0f, 0f, 0f,
+            0f, -1f, 0f, 0f,
+            0f, 0f, 1f, 0f,
+            0f, 1f, 0f, 1f
+    };
+
     public static EglCore create(EGLContext shareContext) {
         try {
             return new EglCore(shareContext);
@@ -40,14 +55,36 @@ public class EglCore implements AutoCloseable {
 
 
     private final Map<Surface, EglSurfaceHolder> eglSurfaceMap = new HashMap<>();
-    private final Map<FrameFormat, EglProgram> eglProgramMap = new HashMap<>();
+    private final Map<EglPixelBufferFrameReader, EglSurfaceHolder> pixelBufferMap = new HashMap<>();
+    // 绘制时遍历的快照，只在输出变化时重建，避免每帧创建HashMap的迭代器
+    private final List<EglSurfaceHolder> eglSurfaceList = new ArrayList<>();
+    private final List<EglPixelBufferFrameReader> pixelBufferReaderList = new ArrayList<>();
+    private final List<EglSurfaceHolder> pixelBufferHolderList = new ArrayList<>();
+    private final List<LumaGroup> lumaGroupList = new ArrayList<>();
+    private final float[] frameTexMatrix = new float[16];
     private final EglVertexCoord eglVertexCoord = new EglVertexCoord();
     private final EGLDisplay eglDisplay;
     private final EGLContext eglContext;
     private final EGLConfig eglConfig;
     private final EglBufferObjectHolder eglBOHolder;
+    private final EglProgramSet oesProgramSet;
+    private final int glVersion;
+
+    private EglProgramSet texture2DProgramSet;
+    private final EglFrameTexture frameTexture = new EglFrameTexture();
+    private boolean isIntermediateTextureEnabled = false;
+    private boolean isTexture2DProgramSetFailed = false;
+    private EglYUVColorSpace yuvColorSpace = EglYUVColorSpace.BT_709;
+    // 为null时不计时，GL线程中写入，快照时可以在任意线程读取
+    private volatile EglGpuTimer gpuTimer;
+
+    // 非调试模式下每隔多少帧检查一次GL错误、重新查询一次EGLSurface的尺寸
+    static final int FRAME_SAMPLE_INTERVAL = 30;
 
     private int backgroundColor = Color.BLACK;
+    private int drawFrameCount;
+    private int sourceTextureId;
+    private int sourceTextureTarget;
     private boolean isRelease = false;
 
     private EglCore(final EGLContext shareContext) {
@@ -59,33 +96,9 @@ public class EglCore implements AutoCloseable {
 
             eglBOHolder = new EglBufferObjectHolder();
 
-            EglProgram[] supportProgram = {
-                    new EglProgramRGBA(eglBOHolder),
-                    new EglProgramRGBX(eglBOHolder),
-                    new EglProgramBGRA(eglBOHolder),
-                    new EglProgramBGRX(eglBOHolder),
-                    new EglProgramRGB888(eglBOHolder),
-                    new EglProgramRGB565(eglBOHolder),
-                    new EglProgramYU12(eglBOHolder),
-                    new EglProgramYV12(eglBOHolder),
-                    new EglProgramNV12(eglBOHolder),
-                    new EglProgramNV21(eglBOHolder),
-                    new EglProgramI444(eglBOHolder),
-                    new EglProgramYUVY(eglBOHolder),
-                    new EglProgramYUYV(eglBOHolder),
-                    new EglProgramYVYU(eglBOHolder),
-                    new EglProgramUYVY(eglBOHolder),
-                    new EglProgramVYUY(eglBOHolder),
-            };
-
-            for (EglProgram program : supportProgram) {
-                if (eglProgramMap.containsKey(program.getFrameFormat())) {
-                    throw new GLException(-1, "repeated format");
-                }
-                eglProgramMap.put(program.getFrameFormat(), program);
-            }
-            Log.i(TAG, "version = " + GLES20.glGetString(GLES20.GL_VERSION)
-                    + ", supportFormat = " + eglProgramMap.keySet());
+            glVersion = EglTool.getGlVersion();
+            oesProgramSet = new EglProgramSet(eglBOHolder, GLES11Ext.GL_TEXTURE_EXTERNAL_OES, glVersion >= 31);
+            Log.i(TAG, "version = " + GLES20.glGetString(GLES20.GL_VERSION) + ", " + oesProgramSet);
         } catch (Throwable e) {
             close();
             throw e;
@@ -96,11 +109,29 @@ public class EglCore implements AutoCloseable {
     public void close() {
         if (!isRelease) {
             EglTool.releaseEGLSurfaceHolder(eglDisplay, eglSurfaceMap.values());
-            EglTool.releaseEglProgram(eglProgramMap.values());
+            for (EglSurfaceHolder holder : eglSurfaceMap.values()) {
+                holder.vertexArray.close();
+            }
+            for (EglSurfaceHolder holder : pixelBufferMap.values()) {
+                holder.vertexArray.close();
+            }
+            if (oesProgramSet != null) {
+                oesProgramSet.close();
+            }
+            if (texture2DProgramSet != null) {
+                texture2DProgramSet.close();
+                texture2DProgramSet = null;
+            }
+            frameTexture.close();
+            if (gpuTimer != null) {
+                gpuTimer.close();
+                gpuTimer = null;
+            }
             eglBOHolder.close();
-            EglTool.release(eglDisplay, eglContext);
-            eglProgramMap.clear();
             eglSurfaceMap.clear();
+            pixelBufferMap.clear();
+            rebuildHolderList();
+            EglTool.release(eglDisplay, eglContext);
             isRelease = true;
         }
     }
@@ -116,7 +147,18 @@ public class EglCore implements AutoCloseable {
     }
 
     public void drawOESTexture(int texId, Size texSize, float[] texMatrix) {
-        if (isRelease || eglSurfaceMap.isEmpty()) {
+        drawOESTexture(texId, texSize, texMatrix, System.nanoTime());
+    }
+
+    /**
+     * @param timestampNs 帧的时间戳，用于计算每个输出的帧率限制，见{@link FrameThrottle}，不大于0时使用当前时间
+     */
+    public void drawOESTexture(int texId, Size texSize, float[] texMatrix, long timestampNs) {
+        if (isRelease) {
+            return;
+        }
+        pollGpuTimer();
+        if (eglSurfaceMap.isEmpty() && pixelBufferMap.isEmpty()) {
             return;
         }
         if (texSize.getWidth() <= 0 || texSize.getHeight() <= 0) {
@@ -124,19 +166,63 @@ public class EglCore implements AutoCloseable {
             return;
         }
 
+        if (timestampNs <= 0) {
+            timestampNs = System.nanoTime();
+        }
+        drawFrameCount++;
+        if (!EglTool.isDebugMode() && drawFrameCount % FRAME_SAMPLE_INTERVAL == 0) {
+            EglTool.pollGlError("drawOESTexture");
+        }
+        // 先确定本帧需要绘制的输出，全部被限制时不做任何绘制
+        int drawCount = 0;
+        for (int i = 0; i < eglSurfaceList.size(); i++) {
+            if (eglSurfaceList.get(i).updateThrottle(timestampNs)) {
+                drawCount++;
+            }
+        }
+        for (int i = 0; i < pixelBufferHolderList.size(); i++) {
+            if (pixelBufferHolderList.get(i).updateThrottle(timestampNs)) {
+                drawCount++;
+            }
+        }
+        if (drawCount == 0) {
+            for (int i = 0; i < pixelBufferReaderList.size(); i++) {
+                pixelBufferReaderList.get(i).pollPixels();
+            }
+            return;
+        }
+
         EglTool.bindOESTexture(texId, GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE0);
 
-        eglBOHolder.updateTexMatrixUbo(texMatrix);
+        EglProgramSet programSet;
+        boolean useFrameTexture = drawFrameTexture(texSize, texMatrix);
+        if (useFrameTexture) {
+            // 之后所有的输出都从中间纹理采样，中间纹理已经应用过texMatrix，见drawFrameTexture
+            programSet = texture2DProgramSet;
+            eglBOHolder.updateTexMatrixUbo(FLIP_Y_MATRIX);
+            sourceTextureId = frameTexture.getTextureId();
+            sourceTextureTarget = GLES20.GL_TEXTURE_2D;
+        } else {
+            programSet = oesProgramSet;
+            eglBOHolder.updateTexMatrixUbo(texMatrix);
+            sourceTextureId = texId;
+            sourceTextureTarget = GLES11Ext.GL_TEXTURE_EXTERNAL_OES;
+        }
+        EglTool.bindOESTexture(sourceTextureId, sourceTextureTarget, GLES20.GL_TEXTURE0);
 
-        for (EglSurfaceHolder surfaceHolder : eglSurfaceMap.values()) {
+        for (int i = 0; i < eglSurfaceList.size(); i++) {
+            EglSurfaceHolder surfaceHolder = eglSurfaceList.get(i);
+            if (surfaceHolder.isSkipFrame) {
+                continue;
+            }
             if (!surfaceHolder.surface.isValid()) {
                 Log.w(TAG, "skip draw: surface is invalid: " + surfaceHolder.surface);
                 continue;
             }
-            EglProgram program = eglProgramMap.get(surfaceHolder.format);
+            EglProgram program = programSet.getProgram(surfaceHolder.format);
             if (program == null) {
                 Log.w(TAG, "skip draw: program == null, format = " + surfaceHolder.format);
-                return;
+                continue;
             }
 
 
@@ -147,70 +233,574 @@ public class EglCore implements AutoCloseable {
                 continue;
             }
 
-            eglVertexCoord.updateViewport(surfaceWidth, surfaceHeight);
-            float[] vertex = eglVertexCoord.getVertexCoord(texSize.getWidth(), texSize.getHeight(), surfaceHolder.transform);
-            eglBOHolder.updateVertexCoordinate(vertex);
+            int vaoId = prepareVertexArray(surfaceHolder, surfaceWidth, surfaceHeight, texSize, false);
+            if (useFrameTexture) {
+                frameTexture.selectLevel(surfaceHolder.sourceFootprint, surfaceHolder.sourceFootprint);
+            }
 
             EglTool.makeCurrent(eglDisplay, eglContext, surfaceHolder.eglSurface);
-            EglTool.clearColor(backgroundColor, GLES20.GL_COLOR_BUFFER_BIT);
-
-            program.draw(surfaceWidth, surfaceHeight);
+            drawOutput(surfaceHolder, program, surfaceWidth, surfaceHeight, vaoId, 0);
 
+            long swapStartNs = startReaderStats(surfaceHolder);
             if (!EGL14.eglSwapBuffers(eglDisplay, surfaceHolder.eglSurface)) {
                 throw new GLException(-1, "eglSwapBuffers fail: " + surfaceHolder.surface + " " + surfaceHolder.eglSurface);
             }
+            finishReaderStats(surfaceHolder, swapStartNs);
+            if (surfaceHolder.reader != null) {
+                surfaceHolder.reader.onFrameDrawn();
+            }
+        }
+
+        for (int i = 0; i < pixelBufferReaderList.size(); i++) {
+            EglPixelBufferFrameReader reader = pixelBufferReaderList.get(i);
+            EglSurfaceHolder surfaceHolder = pixelBufferHolderList.get(i);
+            reader.pollPixels();
+            if (surfaceHolder.isSkipFrame) {
+                continue;
+            }
+            int width = surfaceHolder.surfaceSize.getWidth();
+            int height = surfaceHolder.surfaceSize.getHeight();
+            if (useFrameTexture) {
+                frameTexture.selectLevel(surfaceHolder.sourceFootprint, surfaceHolder.sourceFootprint);
+            }
+            if (reader.getAttachmentCount() == 0) {
+                EglComputeProgramYUV420 computeProgram = programSet.getComputeProgram(surfaceHolder.format);
+                if (computeProgram == null) {
+                    Log.w(TAG, "skip draw: compute program == null, format = " + surfaceHolder.format);
+                    continue;
+                }
+                float[] vertex = surfaceHolder.vertexArray.update(eglVertexCoord,
+                        texSize.getWidth(), texSize.getHeight(), width, height, surfaceHolder.transform, false);
+                long dispatchStartNs = startReaderStats(surfaceHolder);
+                boolean isTiming = beginGpuTimer(surfaceHolder);
+                computeProgram.dispatch(reader, width, height, vertex, backgroundColor);
+                endGpuTimer(isTiming);
+                finishReaderStats(surfaceHolder, dispatchStartNs);
+                continue;
+            }
+            EglProgram program = reader.getAttachmentCount() > 1
+                    ? programSet.getMrtProgram(surfaceHolder.format)
+                    : programSet.getProgram(surfaceHolder.format);
+            if (program == null) {
+                Log.w(TAG, "skip draw: program == null, format = " + surfaceHolder.format);
+                continue;
+            }
+            // FBO的第一行是底部，而window surface的第一行是顶部，所以需要上下翻转，保证两种读取方式的数据排列一致
+            int vaoId = prepareVertexArray(surfaceHolder, width, height, texSize, true);
+
+            reader.bindFramebuffer();
+            drawOutput(surfaceHolder, program, width, height, vaoId, reader.getFramebufferId());
+
+            long readStartNs = startReaderStats(surfaceHolder);
+            reader.readPixels();
+            finishReaderStats(surfaceHolder, readStartNs);
+        }
+    }
+
+    /**
+     * 在已经绑定好的目标上绘制一个输出，开启了GPU计时时同时计时
+     */
+    private void drawOutput(EglSurfaceHolder surfaceHolder,
+                            EglProgram program,
+                            int width,
+                            int height,
+                            int vaoId,
+                            int targetFramebuffer) {
+        boolean isTiming = beginGpuTimer(surfaceHolder);
+        drawProgram(surfaceHolder, program, width, height, vaoId, targetFramebuffer);
+        endGpuTimer(isTiming);
+    }
+
+    /**
+     * @return 是否开始了计时，为true时必须调用{@link #endGpuTimer(boolean)}
+     */
+    private boolean beginGpuTimer(EglSurfaceHolder surfaceHolder) {
+        EglGpuTimer timer = gpuTimer;
+        return timer != null && timer.begin(getTimerOutput(surfaceHolder), surfaceHolder.format);
+    }
+
+    private void endGpuTimer(boolean isTiming) {
+        if (isTiming) {
+            gpuTimer.end();
+        }
+    }
+
+    /**
+     * @return 读取器统计的开始时间，没有统计对象时不读取时钟，返回0
+     */
+    private static long startReaderStats(EglSurfaceHolder surfaceHolder) {
+        return surfaceHolder.readerStats != null ? System.nanoTime() : 0;
+    }
+
+    private static void finishReaderStats(EglSurfaceHolder surfaceHolder, long startNs) {
+        if (surfaceHolder.readerStats != null) {
+            surfaceHolder.readerStats.onSwap(System.nanoTime() - startNs);
+        }
+    }
+
+    /**
+     * 开启了中间纹理，或者有输出的尺寸小于源尺寸的一半时，把OES纹理绘制到中间纹理。
+     * 中间纹理的尺寸为源尺寸，输出都比源小时缩小到最大的输出尺寸；最小的输出不到中间纹理的一半时再生成mipmap。
+     * 这里的输出尺寸指整个源在输出中占据的长度（见{@link #getSourceFootprint}），裁剪放大的输出会大于它的视口，
+     * 保证这类输出采样到的中间纹理不会比直接从OES纹理采样更模糊。
+     *
+     * @return 没有使用中间纹理时返回false，此时直接从OES纹理采样
+     */
+    private boolean drawFrameTexture(Size texSize, float[] texMatrix) {
+        int texWidth = texSize.getWidth();
+        int texHeight = texSize.getHeight();
+        int maxOutputLength = 0;
+        int minOutputLength = Integer.MAX_VALUE;
+        for (int i = 0; i < eglSurfaceList.size(); i++) {
+            EglSurfaceHolder surfaceHolder = eglSurfaceList.get(i);
+            if (surfaceHolder.isSkipFrame) {
+                continue;
+            }
+            int width = surfaceHolder.getSurfaceWidth(eglDisplay);
+            int height = surfaceHolder.getSurfaceHeight(eglDisplay);
+            if (width > 0 && height > 0) {
+                int length = getSourceFootprint(surfaceHolder, width, height, texSize, false);
+                maxOutputLength = Math.max(maxOutputLength, length);
+                minOutputLength = Math.min(minOutputLength, length);
+            }
+        }
+        for (int i = 0; i < pixelBufferHolderList.size(); i++) {
+            EglSurfaceHolder surfaceHolder = pixelBufferHolderList.get(i);
+            if (surfaceHolder.isSkipFrame) {
+                continue;
+            }
+            int length = getSourceFootprint(surfaceHolder,
+                    surfaceHolder.surfaceSize.getWidth(), surfaceHolder.surfaceSize.getHeight(), texSize, true);
+            maxOutputLength = Math.max(maxOutputLength, length);
+            minOutputLength = Math.min(minOutputLength, length);
+        }
+        int maxTexLength = Math.max(texWidth, texHeight);
+        boolean isDownscale = maxOutputLength > 0 && minOutputLength * 2 < maxTexLength;
+        if (!isIntermediateTextureEnabled && !isDownscale) {
+            frameTexture.close();
+            return false;
+        }
+        if (!prepareTexture2DProgramSet()) {
+            return false;
+        }
+        EglProgram program = oesProgramSet.getProgram(FrameFormat.RGBA_8888);
+        if (program == null) {
+            Log.w(TAG, "drawFrameTexture fail: program == null, format = " + FrameFormat.RGBA_8888);
+            return false;
+        }
+        if (maxOutputLength > 0 && maxOutputLength < maxTexLength) {
+            float scale = (float) maxOutputLength / maxTexLength;
+            texWidth = Math.max(1, Math.round(texWidth * scale));
+            texHeight = Math.max(1, Math.round(texHeight * scale));
+        }
+        int levelCount = 1 + EglTool.getMipmapLevel(Math.max(texWidth, texHeight), minOutputLength);
+        try {
+            frameTexture.resize(texWidth, texHeight, levelCount);
+        } catch (Exception e) {
+            Log.w(TAG, "drawFrameTexture fail: " + e);
+            return false;
+        }
+        // 共享的顶点VBO只用于铺满整个中间纹理，始终是默认的全屏坐标，不需要每帧上传。
+        // 中间纹理按上下翻转后的坐标存放，输出再用FLIP_Y_MATRIX采样，
+        // 这样着色器中的v_texCoord和直接从OES纹理采样时一致，按v_texCoord划分Y、UV区域的格式才能得到相同的排列
+        Matrix.multiplyMM(frameTexMatrix, 0, texMatrix, 0, FLIP_Y_MATRIX, 0);
+        eglBOHolder.updateTexMatrixUbo(frameTexMatrix);
+        frameTexture.bindFramebuffer();
+        program.draw(texWidth, texHeight);
+        frameTexture.unbindFramebuffer();
+        frameTexture.generateMipmap();
+        return true;
+    }
+
+    private boolean prepareTexture2DProgramSet() {
+        if (texture2DProgramSet != null) {
+            return true;
+        }
+        if (isTexture2DProgramSetFailed) {
+            return false;
+        }
+        EglProgramSet programSet = new EglProgramSet(eglBOHolder, GLES20.GL_TEXTURE_2D, glVersion >= 31);
+        programSet.setYuvColorSpace(yuvColorSpace);
+        // program是按需创建的，先创建最基础的RGBA program，确认设备支持从GL_TEXTURE_2D采样
+        if (programSet.getProgram(FrameFormat.RGBA_8888) == null) {
+            Log.w(TAG, "create texture2D program fail");
+            programSet.close();
+            isTexture2DProgramSetFailed = true;
+            return false;
+        }
+        texture2DProgramSet = programSet;
+        return true;
+    }
+
+    /**
+     * 在已经绑定好的目标（window surface或者FBO）上绘制一个输出。
+     * 属于亮度共享组的输出：本帧组内第一个绘制的输出把完整结果绘制到组的纹理中，
+     * 之后每个成员都从组纹理blit，格式不同的成员再只绘制色度部分，Y平面只计算一次。
+     *
+     * @param targetFramebuffer 目标的FBO，window surface为0
+     */
+    private void drawProgram(EglSurfaceHolder surfaceHolder,
+                             EglProgram program,
+                             int width,
+                             int height,
+                             int vaoId,
+                             int targetFramebuffer) {
+        LumaGroup group = surfaceHolder.lumaGroup;
+        if (group == null || !(program instanceof EglProgramYUV420)) {
+            EglTool.clearColor(backgroundColor, GLES20.GL_COLOR_BUFFER_BIT);
+            program.draw(width, height, vaoId);
+            return;
+        }
+        int viewportWidth = program.getRealViewportWidth(width);
+        int viewportHeight = program.getRealViewportHeight(height);
+        if (group.renderedFrame != drawFrameCount) {
+            int textureId = group.texture.getTextureId();
+            group.texture.resize(viewportWidth, viewportHeight);
+            if (textureId != group.texture.getTextureId()) {
+                // 创建纹理时改变了GL_TEXTURE0上的绑定
+                EglTool.bindOESTexture(sourceTextureId, sourceTextureTarget, GLES20.GL_TEXTURE0);
+            }
+            group.texture.bindFramebuffer();
+            EglTool.clearColor(backgroundColor, GLES20.GL_COLOR_BUFFER_BIT);
+            program.draw(width, height, vaoId);
+            group.renderedFrame = drawFrameCount;
+            group.renderedFormat = surfaceHolder.format;
+        }
+        GLES20.glBindFramebuffer(GLES30.GL_READ_FRAMEBUFFER, group.texture.getFramebufferId());
+        GLES20.glBindFramebuffer(GLES30.GL_DRAW_FRAMEBUFFER, targetFramebuffer);
+        GLES30.glBlitFramebuffer(0, 0, viewportWidth, viewportHeight, 0, 0, viewportWidth, viewportHeight,
+                GLES20.GL_COLOR_BUFFER_BIT, GLES20.GL_NEAREST);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, targetFramebuffer);
+        if (surfaceHolder.format != group.renderedFormat) {
+            EglProgramYUV420 yuv420Program = (EglProgramYUV420) program;
+            yuv420Program.setSkipLuma(true);
+            program.draw(width, height, vaoId);
+            yuv420Program.setSkipLuma(false);
         }
     }
 
+    /**
+     * 计算整个源纹理绘制到该输出时长边占据的像素数，结果同时保存在{@link EglSurfaceHolder#sourceFootprint}中。
+     * 顶点数据和之后绘制时的一致，会被EglVertexArray缓存，不会重复计算
+     */
+    private int getSourceFootprint(EglSurfaceHolder surfaceHolder,
+                                   int width,
+                                   int height,
+                                   Size texSize,
+                                   boolean flipVertical) {
+        float[] vertex = surfaceHolder.vertexArray.update(eglVertexCoord,
+                texSize.getWidth(), texSize.getHeight(), width, height, surfaceHolder.transform, flipVertical);
+        // vertex中前三个点是源的相邻三个角，0到1为源的宽度方向，0到2为高度方向；NDC坐标乘以视口的一半换算为像素
+        float topX = (vertex[2] - vertex[0]) * width / 2;
+        float topY = (vertex[3] - vertex[1]) * height / 2;
+        float leftX = (vertex[4] - vertex[0]) * width / 2;
+        float leftY = (vertex[5] - vertex[1]) * height / 2;
+        double length = Math.max(Math.sqrt(topX * topX + topY * topY), Math.sqrt(leftX * leftX + leftY * leftY));
+        surfaceHolder.sourceFootprint = (int) Math.ceil(length);
+        return surfaceHolder.sourceFootprint;
+    }
+
+    /**
+     * @return 该输出的VAO，顶点数据只在纹理尺寸、视口或者变换变化时才重新计算和上传
+     */
+    private int prepareVertexArray(EglSurfaceHolder surfaceHolder,
+                                   int width,
+                                   int height,
+                                   Size texSize,
+                                   boolean flipVertical) {
+        surfaceHolder.vertexArray.update(eglVertexCoord,
+                texSize.getWidth(), texSize.getHeight(), width, height, surfaceHolder.transform, flipVertical);
+        return surfaceHolder.vertexArray.getVaoId(eglBOHolder);
+    }
+
     public EglFrameReader createFrameReader(FrameFormat format, Size size, boolean directBuffer) {
-        EglProgram eglProgram = eglProgramMap.get(format);
+        return createFrameReader(format, size, new FrameReaderConfig.Builder()
+                .setDirectBuffer(directBuffer)
+                .build());
+    }
+
+    public EglFrameReader createFrameReader(FrameFormat format, Size size, FrameReaderConfig config) {
+        if (config.getBackend() == FrameReaderConfig.Backend.COMPUTE) {
+            EglComputeProgramYUV420 computeProgram = oesProgramSet.getComputeProgram(format);
+            if (computeProgram != null && computeProgram.isSizeSupported(size)) {
+                return computeProgram.createEglFrameReader(size, config);
+            }
+            Log.w(TAG, "createFrameReader: compute is not supported, fallback to mrt, format = " + format
+                    + ", size = " + size);
+            config = config.buildUpon().setBackend(FrameReaderConfig.Backend.MULTIPLE_RENDER_TARGET).build();
+        }
+        if (config.getBackend() == FrameReaderConfig.Backend.MULTIPLE_RENDER_TARGET) {
+            EglProgram mrtProgram = oesProgramSet.getMrtProgram(format);
+            if (mrtProgram != null) {
+                return mrtProgram.createEglFrameReader(size, config);
+            }
+            Log.w(TAG, "createFrameReader: mrt is not supported, fallback to pixel buffer, format = " + format);
+            config = config.buildUpon().setBackend(FrameReaderConfig.Backend.PIXEL_BUFFER).build();
+        }
+        EglProgram eglProgram = oesProgramSet.getProgram(format);
         if (eglProgram == null) {
             return null;
         }
-        return eglProgram.createEglFrameReader(size, directBuffer);
+        return eglProgram.createEglFrameReader(size, config);
     }
 
     public void putFrameReader(EglFrameReader reader, Transform transform) {
+        putFrameReader(reader, transform, null);
+    }
+
+    public void putFrameReader(EglFrameReader reader, Transform transform, FrameReaderStats stats) {
+        putFrameReader(reader, transform, stats, FrameThrottle.NONE);
+    }
+
+    public void putFrameReader(EglFrameReader reader,
+                               Transform transform,
+                               FrameReaderStats stats,
+                               FrameThrottle throttle) {
+        if (reader instanceof EglPixelBufferFrameReader) {
+            if (isRelease) {
+                return;
+            }
+            EglSurfaceHolder old = pixelBufferMap.put((EglPixelBufferFrameReader) reader, new EglSurfaceHolder(
+                    null,
+                    reader.getSize(),
+                    EGL14.EGL_NO_SURFACE,
+                    reader.getFormat(),
+                    transform,
+                    stats,
+                    throttle,
+                    false));
+            if (old != null) {
+                old.vertexArray.close();
+            }
+            rebuildHolderList();
+            Log.i(TAG, "putFrameReader: format = " + reader.getFormat() + ", size = " + reader.getSize()
+                    + ", currentPixelBufferCount = " + pixelBufferMap.size());
+            return;
+        }
+        Surface surface = ((EglImageFrameReader) reader).getSurface();
         updateSurface(
-                reader.getSurface(),
+                surface,
                 reader.getSize(),
                 reader.getFormat(),
-                transform);
+                transform,
+                stats,
+                throttle,
+                false);
+        EglSurfaceHolder holder = eglSurfaceMap.get(surface);
+        if (holder != null) {
+            holder.reader = reader;
+        }
     }
 
     public void removeFrameReader(EglFrameReader reader) {
-        updateSurface(reader.getSurface(), null, null, null);
+        if (reader instanceof EglPixelBufferFrameReader) {
+            EglSurfaceHolder holder = pixelBufferMap.remove(reader);
+            if (holder != null) {
+                holder.vertexArray.close();
+            }
+            rebuildHolderList();
+            return;
+        }
+        updateSurface(((EglImageFrameReader) reader).getSurface(), null, null, null, null, null, false);
+    }
+
+    /**
+     * 提前编译该格式对应的program，开启了中间纹理时同时编译从中间纹理采样的program
+     *
+     * @param backend 帧读取的方式，MRT和计算着色器使用单独的program
+     * @return 该格式是否支持
+     */
+    public boolean prewarmProgram(FrameFormat format, FrameReaderConfig.Backend backend) {
+        if (isRelease) {
+            return false;
+        }
+        EglProgramSet[] programSets = texture2DProgramSet != null && isIntermediateTextureEnabled
+                ? new EglProgramSet[]{oesProgramSet, texture2DProgramSet}
+                : new EglProgramSet[]{oesProgramSet};
+        boolean isSupported = true;
+        for (EglProgramSet programSet : programSets) {
+            if (backend == FrameReaderConfig.Backend.COMPUTE) {
+                programSet.getComputeProgram(format);
+            }
+            if (backend == FrameReaderConfig.Backend.COMPUTE
+                    || backend == FrameReaderConfig.Backend.MULTIPLE_RENDER_TARGET) {
+                programSet.getMrtProgram(format);
+            }
+            // MRT和计算着色器不支持时会退回普通program
+            isSupported &= programSet.getProgram(format) != null;
+        }
+        return isSupported;
+    }
+
+    /**
+     * 释放当前没有输出使用的program，没有开启中间纹理时释放整个中间纹理的program集合
+     *
+     * @param releaseFrameTexture 是否同时释放中间纹理，用于暂停时，下一次绘制会按需重新创建
+     * @return 估算释放的字节数
+     */
+    public long trimMemory(boolean releaseFrameTexture) {
+        if (isRelease) {
+            return 0;
+        }
+        Set<FrameFormat> formatsInUse = EnumSet.noneOf(FrameFormat.class);
+        for (int i = 0; i < eglSurfaceList.size(); i++) {
+            formatsInUse.add(eglSurfaceList.get(i).format);
+        }
+        for (int i = 0; i < pixelBufferHolderList.size(); i++) {
+            formatsInUse.add(pixelBufferHolderList.get(i).format);
+        }
+        long freedBytes = oesProgramSet.trim(formatsInUse);
+        if (releaseFrameTexture) {
+            freedBytes += frameTexture.getMemorySize();
+            frameTexture.close();
+        }
+        if (texture2DProgramSet != null) {
+            if (!isIntermediateTextureEnabled && frameTexture.getTextureId() == 0) {
+                freedBytes += texture2DProgramSet.trim(EnumSet.noneOf(FrameFormat.class));
+                texture2DProgramSet.close();
+                texture2DProgramSet = null;
+            } else {
+                freedBytes += texture2DProgramSet.trim(formatsInUse);
+            }
+        }
+        return freedBytes;
+    }
+
+    /**
+     * 暂停或恢复一个读取器的绘制，暂停时读取器的EGLSurface或者PBO都会保留
+     */
+    public void setFrameReaderSuspended(EglFrameReader reader, boolean suspended) {
+        EglSurfaceHolder holder = reader instanceof EglPixelBufferFrameReader
+                ? pixelBufferMap.get(reader)
+                : eglSurfaceMap.get(((EglImageFrameReader) reader).getSurface());
+        if (holder != null) {
+            holder.isSuspended = suspended;
+        }
     }
 
     public void putSurface(Surface surface, Size surfaceSize, Transform transform) {
-        updateSurface(surface, surfaceSize, FrameFormat.RGBA_8888, transform);
+        putSurface(surface, surfaceSize, transform, FrameThrottle.NONE);
+    }
+
+    public void putSurface(Surface surface, Size surfaceSize, Transform transform, FrameThrottle throttle) {
+        updateSurface(surface, surfaceSize, FrameFormat.RGBA_8888, transform, null, throttle, true);
     }
 
     public void removeSurface(Surface surface) {
-        updateSurface(surface, null, null, null);
+        updateSurface(surface, null, null, null, null, null, true);
     }
 
     public boolean hasSurface(Surface surface) {
         return eglSurfaceMap.containsKey(surface);
     }
 
+    /**
+     * @return 所有通过{@link #putSurface}添加的输出Surface的实际尺寸，不包括帧读取器，尺寸未知的输出会被忽略
+     */
+    public List<Size> getWindowSurfaceSizes() {
+        List<Size> sizes = new ArrayList<>();
+        for (int i = 0; i < eglSurfaceList.size(); i++) {
+            EglSurfaceHolder holder = eglSurfaceList.get(i);
+            if (!holder.isWindow) {
+                continue;
+            }
+            holder.invalidateSurfaceSize();
+            int width = holder.getSurfaceWidth(eglDisplay);
+            int height = holder.getSurfaceHeight(eglDisplay);
+            if (width > 0 && height > 0) {
+                sizes.add(new Size(width, height));
+            }
+        }
+        return sizes;
+    }
+
     public void setBackgroundColor(int backgroundColor) {
         this.backgroundColor = backgroundColor;
     }
 
     public void setYUVColorSpace(EglYUVColorSpace colorSpace) {
-        for (EglProgram program : eglProgramMap.values()) {
-            if (program instanceof EglProgramYUV) {
-                ((EglProgramYUV) program).setYuvColorSpace(colorSpace);
+        yuvColorSpace = colorSpace;
+        oesProgramSet.setYuvColorSpace(colorSpace);
+        if (texture2DProgramSet != null) {
+            texture2DProgramSet.setYuvColorSpace(colorSpace);
+        }
+    }
+
+    /**
+     * 开启后每帧先把OES纹理绘制一次到中间纹理（GL_TEXTURE_2D），所有输出再从中间纹理采样，
+     * 输出较多时可以减少OES纹理的重复采样和带宽。中间纹理的program在第一次使用时才创建。
+     * <p>
+     * 关闭时如果有输出的尺寸小于源尺寸的一半，仍然会自动使用中间纹理做mipmap缩小。
+     */
+    public void setIntermediateTextureEnabled(boolean enabled) {
+        if (isRelease || enabled == isIntermediateTextureEnabled) {
+            return;
+        }
+        if (enabled && !prepareTexture2DProgramSet()) {
+            Log.w(TAG, "setIntermediateTextureEnabled fail: texture2D program is not supported");
+            return;
+        }
+        isIntermediateTextureEnabled = enabled;
+    }
+
+    /**
+     * 开启后通过GL_EXT_disjoint_timer_query统计每个输出、每种格式的program的GPU耗时，默认关闭。
+     * 结果在之后的帧中非阻塞地取回，不会等待GPU，但每次绘制会多一次查询的开销
+     *
+     * @return 是否开启成功，设备不支持该扩展时返回false
+     */
+    public boolean setGpuTimerEnabled(boolean enabled) {
+        if (isRelease) {
+            return false;
+        }
+        if (!enabled) {
+            if (gpuTimer != null) {
+                gpuTimer.close();
+                gpuTimer = null;
             }
+            return true;
         }
+        if (gpuTimer != null) {
+            return true;
+        }
+        if (!EglGpuTimer.isSupported()) {
+            Log.w(TAG, "setGpuTimerEnabled fail: GL_EXT_disjoint_timer_query is not supported");
+            return false;
+        }
+        gpuTimer = new EglGpuTimer();
+        updateGpuTimerOutputs();
+        return true;
+    }
+
+    /**
+     * 取回GPU计时已经完成的结果，不会阻塞。绘制时会自动调用，暂停绘制时需要在每次消费输入帧时调用，
+     * 否则暂停前排队的结果会一直留在队列中
+     */
+    public void pollGpuTimer() {
+        EglGpuTimer timer = gpuTimer;
+        if (timer != null) {
+            timer.poll();
+        }
+    }
+
+    /**
+     * @return 当前的GPU计时，没有开启时返回null，可以在任意线程调用，只能用于取快照
+     */
+    EglGpuTimer getGpuTimer() {
+        return gpuTimer;
     }
 
     public EGLContext getEGLContext() {
         return eglContext;
     }
 
-    private void updateSurface(Surface surface, Size surfaceSize, FrameFormat format, Transform transform) {
+    private void updateSurface(Surface surface,
+                               Size surfaceSize,
+                               FrameFormat format,
+                               Transform transform,
+                               FrameReaderStats readerStats,
+                               FrameThrottle throttle,
+                               boolean isWindow) {
         if (isRelease) {
             return;
         }
@@ -218,11 +808,14 @@ public class EglCore implements AutoCloseable {
             EglSurfaceHolder info = eglSurfaceMap.get(surface);
             if (info != null && info.eglSurface != EGL14.EGL_NO_SURFACE) {
                 EglTool.releaseSurface(eglDisplay, eglContext, info.eglSurface);
+                info.vertexArray.close();
                 eglSurfaceMap.remove(surface);
+                rebuildHolderList();
             }
             return;
         }
-        if (!eglProgramMap.containsKey(format)) {
+        // program是按需编译的，这里编译一次，确认该格式的program可以创建，而不是等到绘制时才发现
+        if (oesProgramSet.getProgram(format) == null) {
             Log.w(TAG, "updateSurface fail",
                     new IllegalArgumentException("format is not supported, format = " + format));
             return;
@@ -238,13 +831,18 @@ public class EglCore implements AutoCloseable {
             }
         } else {
             eglSurface = info.eglSurface;
+            info.vertexArray.close();
         }
         eglSurfaceMap.put(surface, new EglSurfaceHolder(
                 surface,
                 surfaceSize,
                 eglSurface,
                 format,
-                transform));
+                transform,
+                readerStats,
+                throttle,
+                isWindow));
+        rebuildHolderList();
         Log.i(TAG, "updateSurface: " +
                 "format = " + format + ", " +
                 "size = " + surfaceSize + ", " +
@@ -253,40 +851,224 @@ public class EglCore implements AutoCloseable {
     }
 
 
+    private void rebuildHolderList() {
+        eglSurfaceList.clear();
+        eglSurfaceList.addAll(eglSurfaceMap.values());
+        pixelBufferReaderList.clear();
+        pixelBufferHolderList.clear();
+        for (Map.Entry<EglPixelBufferFrameReader, EglSurfaceHolder> entry : pixelBufferMap.entrySet()) {
+            pixelBufferReaderList.add(entry.getKey());
+            pixelBufferHolderList.add(entry.getValue());
+        }
+        rebuildLumaGroup();
+        updateGpuTimerOutputs();
+    }
+
+    private void updateGpuTimerOutputs() {
+        if (gpuTimer == null) {
+            return;
+        }
+        Set<Object> outputs = new HashSet<>();
+        for (int i = 0; i < eglSurfaceList.size(); i++) {
+            outputs.add(getTimerOutput(eglSurfaceList.get(i)));
+        }
+        for (int i = 0; i < pixelBufferHolderList.size(); i++) {
+            outputs.add(getTimerOutput(pixelBufferHolderList.get(i)));
+        }
+        gpuTimer.setOutputs(outputs);
+    }
+
+    /**
+     * @return GPU计时中输出的标识：输出Surface为Surface本身，帧读取器为其统计对象，没有统计对象的读取器返回null，不计时
+     */
+    private static Object getTimerOutput(EglSurfaceHolder holder) {
+        return holder.isWindow ? holder.surface : holder.readerStats;
+    }
+
+    /**
+     * 把输出尺寸、变换都相同的打包YUV420输出（NV12、NV21、YU12、YV12）分为一组，组内共享同一个Y平面。
+     * window surface和FBO的绘制方向不同，分开分组。只有一个成员的组没有意义，不会创建。
+     */
+    private void rebuildLumaGroup() {
+        for (int i = 0; i < lumaGroupList.size(); i++) {
+            lumaGroupList.get(i).texture.close();
+        }
+        lumaGroupList.clear();
+        for (int i = 0; i < eglSurfaceList.size(); i++) {
+            eglSurfaceList.get(i).lumaGroup = null;
+        }
+        for (int i = 0; i < pixelBufferHolderList.size(); i++) {
+            pixelBufferHolderList.get(i).lumaGroup = null;
+        }
+        groupLuma(eglSurfaceList, null);
+        groupLuma(pixelBufferHolderList, pixelBufferReaderList);
+    }
+
+    private void groupLuma(List<EglSurfaceHolder> holders, List<EglPixelBufferFrameReader> readers) {
+        for (int i = 0; i < holders.size(); i++) {
+            EglSurfaceHolder first = holders.get(i);
+            if (first.lumaGroup != null || !isLumaShareable(first, readers, i)) {
+                continue;
+            }
+            LumaGroup group = null;
+            for (int j = i + 1; j < holders.size(); j++) {
+                EglSurfaceHolder other = holders.get(j);
+                if (other.lumaGroup != null
+                        || !isLumaShareable(other, readers, j)
+                        || !first.surfaceSize.equals(other.surfaceSize)
+                        || first.transform != other.transform) {
+                    continue;
+                }
+                if (group == null) {
+                    group = new LumaGroup();
+                    lumaGroupList.add(group);
+                    first.lumaGroup = group;
+                }
+                other.lumaGroup = group;
+            }
+        }
+    }
+
+    private static boolean isLumaShareable(EglSurfaceHolder holder,
+                                           List<EglPixelBufferFrameReader> readers,
+                                           int index) {
+        if (holder.surfaceSize == null || holder.surfaceSize.getWidth() <= 0 || holder.surfaceSize.getHeight() <= 0) {
+            return false;
+        }
+        if (readers != null && readers.get(index).getAttachmentCount() != 1) {
+            return false;
+        }
+        switch (holder.format) {
+            case NV12:
+            case NV21:
+            case YU12:
+            case YV12:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * 共享Y平面的一组输出，组的纹理中保存本帧第一个绘制的成员的完整结果
+     */
+    private static class LumaGroup {
+        final EglFrameTexture texture = new EglFrameTexture();
+        int renderedFrame = -1;
+        FrameFormat renderedFormat;
+    }
+
     protected static class EglSurfaceHolder {
         public final Surface surface;
         public final Size surfaceSize;
         public final FrameFormat format;
         public final Transform transform;
         public final EGLSurface eglSurface;
+        public final FrameReaderStats readerStats;
+        public final FrameThrottle throttle;
+        // 是否为putSurface添加的输出，false表示帧读取器
+        public final boolean isWindow;
 
+        // 帧率限制的状态，只在GL线程中读写
+        public boolean isSkipFrame;
+        // 是否暂停绘制，只在GL线程中读写
+        public boolean isSuspended;
+        // ImageReader帧读取器，用于背压判断，输出Surface为null，只在GL线程中使用
+        public EglFrameReader reader;
+        // 该输出的顶点数据和VAO，只在GL线程中使用
+        public final EglVertexArray vertexArray = new EglVertexArray();
+        // 共享Y平面的分组，没有分组时为null，只在GL线程中使用
+        private LumaGroup lumaGroup;
+        // 查询EGLSurface尺寸用，避免每帧分配数组
+        private final int[] sizeQuery = new int[1];
+        // 没有指定输出尺寸时缓存EGLSurface的尺寸，非调试模式下每FRAME_SAMPLE_INTERVAL帧才重新查询一次
+        private int cachedWidth;
+        private int cachedHeight;
+        private int sizeQueryCountdown = FRAME_SAMPLE_INTERVAL;
+        // 整个源在该输出中占据的长边像素数，见getSourceFootprint，只在GL线程中使用
+        private int sourceFootprint;
+        private long nextDrawTimeNs;
+        private long frameCount;
 
         public EglSurfaceHolder(Surface surface,
                                 Size surfaceSize,
                                 EGLSurface eglSurface,
                                 FrameFormat format,
-                                Transform transform) {
+                                Transform transform,
+                                FrameReaderStats readerStats,
+                                FrameThrottle throttle,
+                                boolean isWindow) {
             this.surface = surface;
             this.eglSurface = eglSurface;
             this.surfaceSize = surfaceSize;
             this.format = format;
             this.transform = transform;
+            this.readerStats = readerStats;
+            this.throttle = throttle != null ? throttle : FrameThrottle.NONE;
+            this.isWindow = isWindow;
+        }
+
+        /**
+         * 根据帧率限制判断本帧是否需要绘制，结果同时保存在{@link #isSkipFrame}中
+         */
+        public boolean updateThrottle(long timestampNs) {
+            if (--sizeQueryCountdown <= 0) {
+                invalidateSurfaceSize();
+            }
+            isSkipFrame = isSuspended || (reader != null && !reader.canAcceptFrame());
+            if (isSkipFrame) {
+                return false;
+            }
+            if (throttle.isNone()) {
+                return true;
+            }
+            if (frameCount++ % throttle.getFrameInterval() != 0) {
+                isSkipFrame = true;
+                return false;
+            }
+            long intervalNs = throttle.getMinIntervalNs();
+            if (intervalNs > 0) {
+                // 允许1/8个间隔的抖动，避免帧间隔刚好等于限制间隔时因为时间戳抖动而丢帧；时间戳回退时直接绘制并重新对齐
+                long remainNs = nextDrawTimeNs - timestampNs;
+                if (nextDrawTimeNs != 0 && remainNs > intervalNs / 8 && remainNs <= intervalNs) {
+                    isSkipFrame = true;
+                    return false;
+                }
+                // 落后超过一个间隔时重新对齐，否则按固定节奏累加，保证长期的平均帧率准确
+                nextDrawTimeNs = nextDrawTimeNs == 0 || Math.abs(timestampNs - nextDrawTimeNs) > intervalNs
+                        ? timestampNs + intervalNs
+                        : nextDrawTimeNs + intervalNs;
+            }
+            return true;
+        }
+
+        /**
+         * 下次获取尺寸时重新查询EGLSurface
+         */
+        public void invalidateSurfaceSize() {
+            sizeQueryCountdown = FRAME_SAMPLE_INTERVAL;
+            cachedWidth = 0;
+            cachedHeight = 0;
         }
 
         public int getSurfaceWidth(EGLDisplay display) {
             if (surfaceSize != null && surfaceSize.getWidth() > 0) {
                 return surfaceSize.getWidth();
-            } else {
-                return EglTool.getSurfaceWidth(display, eglSurface);
             }
+            if (cachedWidth <= 0 || EglTool.isDebugMode()) {
+                cachedWidth = EglTool.querySurface(display, eglSurface, EGL14.EGL_WIDTH, sizeQuery);
+            }
+            return cachedWidth;
         }
 
         public int getSurfaceHeight(EGLDisplay display) {
             if (surfaceSize != null && surfaceSize.getHeight() > 0) {
                 return surfaceSize.getHeight();
-            } else {
-                return EglTool.getSurfaceHeight(display, eglSurface);
             }
+            if (cachedHeight <= 0 || EglTool.isDebugMode()) {
+                cachedHeight = EglTool.querySurface(display, eglSurface, EGL14.EGL_HEIGHT, sizeQuery);
+            }
+            return cachedHeight;
         }
     }
 }
@@ -1,54 +1,126 @@
 package io.zxingye.surfacebridge;
 
-import android.media.Image;
-import android.media.ImageReader;
 import android.os.Handler;
-import android.util.Log;
+import android.os.Looper;
 import android.util.Size;
 import android.view.Surface;
 
 import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
 
-public class EglFrameReader implements AutoCloseable {
+/**
+ * 帧读取的基类，负责把GPU绘制好的帧读回并分发给监听者。
+ * 具体的读取方式由子类实现，见{@link EglImageFrameReader}和{@link EglPixelBufferFrameReader}。
+ */
+public abstract class EglFrameReader implements AutoCloseable {
 
-    private static final String TAG = "EglFrameReader";
+    protected final FrameFormat format;
+    protected final Size outputSize;
+    protected volatile boolean isClosed;
+    private volatile Executor callbackExecutor;
 
-    private final ImageReader reader;
-    private final FrameFormat format;
-    private final Size outputSize;
-    private final boolean directBuffer;
-    private ByteBuffer frameDataBuffer;
-
-    public EglFrameReader(ImageReader reader,
-                          FrameFormat format,
-                          Size outputSize,
-                          boolean directBuffer) {
-        this.reader = reader;
+    protected EglFrameReader(FrameFormat format, Size outputSize) {
         this.format = format;
         this.outputSize = outputSize;
-        this.directBuffer = directBuffer;
     }
 
     @Override
-    public void close() {
-        reader.close();
+    public abstract void close();
+
+    public abstract void setOnFrameListener(OnFrameListener listener, Handler handler);
+
+    /**
+     * @return 估算的内存占用（GPU和CPU的buffer），单位为字节，用于读取器池的内存上限
+     */
+    public abstract long getMemorySize();
+
+    /**
+     * 释放回调用的CPU帧数据buffer，下一帧到达时再重新分配；正在回调时不会释放
+     *
+     * @return 释放的字节数
+     */
+    public abstract long releaseFrameBuffer();
+
+    /**
+     * 本帧是否可以绘制到该读取器，返回false时GL线程跳过本帧，用于在不阻塞GL线程的前提下实现背压。只在GL线程中调用
+     */
+    public boolean canAcceptFrame() {
+        return true;
     }
 
-    public void setOnFrameListener(OnFrameListener listener, Handler handler) {
-        if (listener == null) {
-            reader.setOnImageAvailableListener(null, null);
-        } else {
-            reader.setOnImageAvailableListener(reader -> {
-                ByteBuffer frameData = acquireLNextFrame();
-                if (frameData != null) {
-                    listener.onFrame(frameData, outputSize, format);
-                }
-            }, handler);
-        }
+    /**
+     * GL线程把一帧提交给该读取器之后调用
+     */
+    public void onFrameDrawn() {
     }
 
+    /**
+     * @deprecated 只有ImageReader后端有输入Surface，请使用{@link EglImageFrameReader#getSurface()}；
+     * 保留在基类中是为了兼容之前版本的调用方，其他后端会抛出UnsupportedOperationException
+     */
+    @Deprecated
     public Surface getSurface() {
-        return reader.getSurface();
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " not support getSurface");
+    }
+
+    /**
+     * @deprecated 只有ImageReader后端支持主动取帧，请使用{@link EglImageFrameReader#acquireLNextFrame()}；
+     * 保留在基类中是为了兼容之前版本的调用方，其他后端会抛出UnsupportedOperationException
+     */
+    @Deprecated
+    public ByteBuffer acquireLNextFrame() {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " not support acquireLNextFrame");
+    }
+
+    public void setOnFrameImageListener(OnFrameImageListener listener, Handler handler) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " not support OnFrameImageListener");
+    }
+
+    public void setOnFrameRingListener(OnFrameRingListener listener,
+                                       int capacity,
+                                       FrameRing.Policy policy,
+                                       Handler handler) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " not support OnFrameRingListener");
+    }
+
+    /**
+     * 设置回调监听者的executor，为null时在分发线程中回调，必须在设置监听之前调用
+     */
+    public void setCallbackExecutor(Executor executor) {
+        this.callbackExecutor = executor;
+    }
+
+    /**
+     * 回调监听者：设置了callbackExecutor时交给executor执行，否则在handler线程中执行。reader关闭后不再回调
+     *
+     * @param onFinish 回调结束（包括因为关闭而没有回调）后执行，可以为null
+     */
+    protected void deliver(Handler handler, Runnable callback, Runnable onFinish) {
+        deliver(handler, () -> {
+            try {
+                if (!isClosed) {
+                    callback.run();
+                }
+            } finally {
+                if (onFinish != null) {
+                    onFinish.run();
+                }
+            }
+        });
+    }
+
+    /**
+     * 同{@link #deliver(Handler, Runnable, Runnable)}，task由调用方复用，这里不会有任何内存分配
+     */
+    protected void deliver(Handler handler, Runnable task) {
+        Executor executor = callbackExecutor;
+        if (executor != null) {
+            executor.execute(task);
+        } else if (handler.getLooper() == Looper.myLooper()) {
+            task.run();
+        } else {
+            handler.post(task);
+        }
     }
 
     public Size getSize() {
@@ -59,50 +131,34 @@ public class EglFrameReader implements AutoCloseable {
         return format;
     }
 
-    public ByteBuffer acquireLNextFrame() {
-        try (Image image = reader.acquireLatestImage()) {
-            if (image == null) {
-                return null;
-            }
-            Image.Plane[] planes = image.getPlanes();
-            if (planes == null || planes.length == 0) {
-                return null;
-            }
-            ByteBuffer data = planes[0].getBuffer();
-            int maxReadLength = data.remaining();
-            if (maxReadLength <= 0) {
-                return null;
-            }
-            int imageWidth = image.getWidth();
-            int imageHeight = image.getHeight();
-            int pixelStride = planes[0].getPixelStride();
-            int rowStride = planes[0].getRowStride();
-            int rowPadding = rowStride - pixelStride * imageWidth;
-            if (frameDataBuffer == null || frameDataBuffer.capacity() < data.remaining()) {
-                if (directBuffer) {
-                    frameDataBuffer = ByteBuffer.allocateDirect(maxReadLength);
-                } else {
-                    frameDataBuffer = ByteBuffer.allocate(maxReadLength);
-                }
-            }
-            frameDataBuffer.clear();
-            int maxLimit = data.limit();
-            int eachReadLength = imageWidth * pixelStride;
-            for (int readHeight = 0; readHeight < imageHeight && data.remaining() > 0; readHeight++) {
-                int readLength = Math.min(data.remaining(), eachReadLength);
-                data.limit(data.position() + readLength);
-                frameDataBuffer.put(data);
-                data.limit(maxLimit);
-                int skipLength = Math.min(data.remaining(), rowPadding);
-                if (skipLength > 0) {
-                    data.position(data.position() + skipLength);
+    /**
+     * 可以复用的onFrame回调任务，每帧只更新帧数据，避免每帧创建新的回调对象
+     */
+    protected class FrameTask implements Runnable {
+        private final OnFrameListener listener;
+        private final Runnable onFinish;
+        private volatile ByteBuffer frameData;
+
+        protected FrameTask(OnFrameListener listener, Runnable onFinish) {
+            this.listener = listener;
+            this.onFinish = onFinish;
+        }
+
+        public FrameTask setFrameData(ByteBuffer frameData) {
+            this.frameData = frameData;
+            return this;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (!isClosed) {
+                    listener.onFrame(frameData, outputSize, format);
                 }
+            } finally {
+                frameData = null;
+                onFinish.run();
             }
-            return (ByteBuffer) frameDataBuffer.asReadOnlyBuffer().rewind();
-        } catch (Exception e) {
-            Log.e(TAG, "acquireLNextFrame fail: " + e);
-            return null;
         }
     }
-
-}
\ No newline at end of file
+}
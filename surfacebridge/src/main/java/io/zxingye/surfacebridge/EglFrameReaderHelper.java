@@ -4,27 +4,43 @@ import android.os.Handler;
 import android.util.Log;
 import android.util.Size;
 
-import java.nio.ByteBuffer;
 import java.util.Objects;
+import java.util.concurrent.Executor;
 
 public class EglFrameReaderHelper implements AutoCloseable {
     private static final String TAG = "EglImageReader";
     private final Adapter adapter;
     private final FrameFormat format;
     private final Size outputSize;
+    private final FrameDispatcherPool dispatcherPool;
     private final Handler dispatcherHandler;
-    private final boolean directBuffer;
+    private final Executor callbackExecutor;
+    private final FrameReaderConfig config;
+    private final EglFrameReaderPool readerPool;
+    private final EglFrameReaderPool.PrewarmKey prewarmKey;
     private EglFrameReader frameReader;
 
+    /**
+     * @param readerPool 输入大小变化时旧的读取器放入该池中，切回原来的大小时直接复用
+     */
     public EglFrameReaderHelper(FrameFormat format,
                                 Size outputSize,
-                                boolean directBuffer,
+                                FrameReaderConfig config,
+                                FrameDispatcherPool dispatcherPool,
+                                EglFrameReaderPool readerPool,
                                 Adapter adapter) {
         this.adapter = Objects.requireNonNull(adapter);
         this.format = Objects.requireNonNull(format);
         this.outputSize = Objects.requireNonNull(outputSize);
-        this.directBuffer = directBuffer;
-        this.dispatcherHandler = Util.createWorkHandler(TAG + "_" + format);
+        this.config = Objects.requireNonNull(config);
+        this.dispatcherPool = Objects.requireNonNull(dispatcherPool);
+        this.readerPool = Objects.requireNonNull(readerPool);
+        this.prewarmKey = new EglFrameReaderPool.PrewarmKey(format, config);
+        this.dispatcherHandler = dispatcherPool.acquire();
+        // 同一个监听的回调在reader重建前后都经过同一个SerialExecutor，保证顺序
+        this.callbackExecutor = config.getCallbackExecutor() != null
+                ? new SerialExecutor(config.getCallbackExecutor())
+                : null;
         Log.i(TAG, "create :" + " format = " + format + ", hashCode = " + hashCode());
 
         updateInputSize(outputSize);
@@ -33,43 +49,106 @@ public class EglFrameReaderHelper implements AutoCloseable {
     @Override
     public synchronized void close() {
         if (frameReader != null) {
-            frameReader.close();
-            adapter.onClose(frameReader);
+            closeReader(frameReader);
             frameReader = null;
         }
-        dispatcherHandler.removeCallbacksAndMessages(null);
-        dispatcherHandler.getLooper().quit();
+        readerPool.clear(this);
+        dispatcherPool.release(dispatcherHandler);
         Log.i(TAG, "close," + hashCode());
     }
 
     public synchronized void updateInputSize(Size inputSize) {
         int realWidth = outputSize.getWidth() > 0 ? outputSize.getWidth() : inputSize.getWidth();
         int realHeight = outputSize.getHeight() > 0 ? outputSize.getHeight() : inputSize.getHeight();
-        if (frameReader != null && Objects.requireNonNull(inputSize).equals(frameReader.getSize())) {
+        if (frameReader != null
+                && frameReader.getSize().getWidth() == realWidth
+                && frameReader.getSize().getHeight() == realHeight) {
             return;
         }
         if (frameReader != null) {
-            adapter.onClose(frameReader);
-            frameReader.close();
+            adapter.onActiveChange(frameReader, false);
+            readerPool.recycle(this, frameReader, this::closeReader);
             frameReader = null;
         }
         if (realWidth <= 0 || realHeight <= 0) {
             return;
         }
-        Log.i(TAG, "updateInputSize: " + realWidth + " x " + realHeight + ", format = " + format);
-        frameReader = adapter.onCreate(format, new Size(realWidth, realHeight), directBuffer);
-        if (frameReader == null) {
-            throw new UnsupportedOperationException("create frameReader fail: " + format);
+        Size realSize = new Size(realWidth, realHeight);
+        EglFrameReader reader = readerPool.obtain(this, realSize);
+        if (reader != null) {
+            // 复用的读取器已经绑定过监听，恢复绘制即可
+            Log.i(TAG, "updateInputSize: reuse " + realSize + ", format = " + format);
+            adapter.onActiveChange(reader, true);
+            frameReader = reader;
+            return;
+        }
+        reader = readerPool.obtain(prewarmKey, realSize);
+        if (reader != null) {
+            Log.i(TAG, "updateInputSize: use prewarmed " + realSize + ", format = " + format);
+            adapter.onAttach(reader);
+            frameReader = reader;
+        } else {
+            Log.i(TAG, "updateInputSize: " + realSize + ", format = " + format);
+            frameReader = adapter.onCreate(format, realSize, config);
+            if (frameReader == null) {
+                throw new UnsupportedOperationException("create frameReader fail: " + format);
+            }
         }
 
-        frameReader.setOnFrameListener(adapter::onFrame, dispatcherHandler);
+        frameReader.setCallbackExecutor(callbackExecutor);
+        adapter.onBind(frameReader, dispatcherHandler);
+    }
+
+    /**
+     * 释放当前的读取器和闲置池中属于该监听的读取器，之后调用{@link #updateInputSize(Size)}会重新创建
+     *
+     * @return 当前读取器估算的内存占用，不包括闲置池中的
+     */
+    public synchronized long releaseReader() {
+        long size = 0;
+        if (frameReader != null) {
+            size = frameReader.getMemorySize();
+            closeReader(frameReader);
+            frameReader = null;
+        }
+        readerPool.clear(this);
+        return size;
+    }
+
+    /**
+     * @return 释放的字节数，见{@link EglFrameReader#releaseFrameBuffer()}
+     */
+    public synchronized long releaseFrameBuffer() {
+        return frameReader != null ? frameReader.releaseFrameBuffer() : 0;
+    }
+
+    private void closeReader(EglFrameReader reader) {
+        adapter.onClose(reader);
+        reader.close();
+    }
+
+    /**
+     * @return 指定的输出大小，宽高为负值表示跟随输入大小
+     */
+    public Size getOutputSize() {
+        return outputSize;
     }
 
     public interface Adapter {
-        EglFrameReader onCreate(FrameFormat format, Size size, boolean directBuffer);
+        EglFrameReader onCreate(FrameFormat format, Size size, FrameReaderConfig config);
+
+        /**
+         * 使用预热创建的读取器时回调，代替{@link #onCreate}
+         */
+        void onAttach(EglFrameReader reader);
 
         void onClose(EglFrameReader reader);
 
-        void onFrame(ByteBuffer frame, Size resolution, FrameFormat format);
+        void onBind(EglFrameReader reader, Handler dispatcherHandler);
+
+        /**
+         * 读取器放入池中闲置时active为false，此时不需要再绘制；从池中取回时为true
+         */
+        void onActiveChange(EglFrameReader reader, boolean active);
     }
 }
@@ -0,0 +1,160 @@
+package io.zxingye.surfacebridge;
+
+import android.util.Log;
+import android.util.Size;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * 闲置帧读取器的LRU池。输入大小来回切换时（比如旋转屏幕、MediaProjection的内容尺寸变化），
+ * 切回最近用过的大小可以直接复用之前的读取器，不需要重新创建ImageReader、EGLSurface或者PBO，也不会丢帧。
+ * <p>
+ * 闲置的读取器仍然挂在EglCore中，只是暂停绘制，所以已经分配的buffer不会被释放。
+ * 每个持有者最多保留{@link #MAX_IDLE_PER_OWNER}个，所有闲置读取器的内存之和超过上限时淘汰最久没用的。
+ * 持有者对应一个EglFrameReaderHelper，格式和配置都是固定的，所以只按大小匹配；
+ * 预热创建的读取器还没有持有者，以{@link PrewarmKey}作为持有者，按格式和配置匹配。只在GL线程中使用。
+ */
+class EglFrameReaderPool {
+
+    private static final String TAG = "EglFrameReaderPool";
+
+    static final int MAX_IDLE_PER_OWNER = 2;
+
+    // 按使用时间排列，最久没用的在最前面
+    private final List<Entry> entries = new ArrayList<>();
+    private long maxIdleBytes;
+    private long idleBytes;
+
+    /**
+     * @param maxIdleBytes 闲置读取器的内存上限，为0时不保留闲置的读取器
+     */
+    EglFrameReaderPool(long maxIdleBytes) {
+        setMaxIdleBytes(maxIdleBytes);
+    }
+
+    void setMaxIdleBytes(long maxIdleBytes) {
+        if (maxIdleBytes < 0) {
+            throw new IllegalArgumentException("maxIdleBytes < 0: " + maxIdleBytes);
+        }
+        this.maxIdleBytes = maxIdleBytes;
+        trim(maxIdleBytes);
+    }
+
+    /**
+     * 回收一个不再使用的读取器，超出上限时会通过closer关闭被淘汰的读取器
+     */
+    void recycle(Object owner, EglFrameReader reader, Closer closer) {
+        long size = reader.getMemorySize();
+        if (size > maxIdleBytes) {
+            closer.close(reader);
+            return;
+        }
+        entries.add(new Entry(owner, reader, closer, size));
+        idleBytes += size;
+        int ownerCount = 0;
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            if (entries.get(i).owner.equals(owner) && ++ownerCount > MAX_IDLE_PER_OWNER) {
+                evict(i);
+            }
+        }
+        trim(maxIdleBytes);
+    }
+
+    /**
+     * @return 该持有者闲置的、大小一致的读取器，没有时返回null
+     */
+    EglFrameReader obtain(Object owner, Size size) {
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            Entry entry = entries.get(i);
+            if (entry.owner.equals(owner) && entry.reader.getSize().equals(size)) {
+                entries.remove(i);
+                idleBytes -= entry.size;
+                return entry.reader;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 关闭该持有者所有闲置的读取器
+     */
+    void clear(Object owner) {
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            if (entries.get(i).owner.equals(owner)) {
+                evict(i);
+            }
+        }
+    }
+
+    /**
+     * 从最久没用的开始关闭，直到闲置读取器的内存不超过targetBytes
+     *
+     * @return 释放的内存，单位为字节
+     */
+    long trim(long targetBytes) {
+        long freedBytes = 0;
+        while (idleBytes > targetBytes && !entries.isEmpty()) {
+            freedBytes += evict(0);
+        }
+        return freedBytes;
+    }
+
+    long getIdleBytes() {
+        return idleBytes;
+    }
+
+    private long evict(int index) {
+        Entry entry = entries.remove(index);
+        idleBytes -= entry.size;
+        Log.i(TAG, "evict: size = " + entry.reader.getSize() + ", format = " + entry.reader.getFormat()
+                + ", bytes = " + entry.size);
+        entry.closer.close(entry.reader);
+        return entry.size;
+    }
+
+    /**
+     * 预热读取器的持有者，格式和配置都相同的帧监听可以取用
+     */
+    static class PrewarmKey {
+        final FrameFormat format;
+        final FrameReaderConfig config;
+
+        PrewarmKey(FrameFormat format, FrameReaderConfig config) {
+            this.format = format;
+            this.config = config;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            PrewarmKey that = (PrewarmKey) o;
+            return format == that.format && config.equals(that.config);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(format, config);
+        }
+    }
+
+    interface Closer {
+        void close(EglFrameReader reader);
+    }
+
+    private static class Entry {
+        final Object owner;
+        final EglFrameReader reader;
+        final Closer closer;
+        final long size;
+
+        Entry(Object owner, EglFrameReader reader, Closer closer, long size) {
+            this.owner = owner;
+            this.reader = reader;
+            this.closer = closer;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package io.zxingye.surfacebridge;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+/**
+ * 中间纹理，每帧把OES纹理绘制一次到这个GL_TEXTURE_2D中，所有输出再从这里采样，
+ * 避免每个输出都重复走一遍samplerExternalOES的采样和转换。
+ * <p>
+ * 有小尺寸的输出时会额外生成mipmap，每层都是上一层的2x2均值，输出从不小于自身尺寸的最小一层采样，
+ * 避免从大图直接GL_LINEAR缩小时的混叠。
+ * <p>
+ * 所有方法都必须在GL线程调用。
+ */
+public class EglFrameTexture implements AutoCloseable {
+
+    private int textureId;
+    private int framebufferId;
+    private int width;
+    private int height;
+    private int levelCount;
+    private int baseLevel;
+
+    public void resize(int width, int height) {
+        resize(width, height, 1);
+    }
+
+    /**
+     * 尺寸或mipmap层数变化时重新创建纹理和FBO，都不变时什么也不做
+     */
+    public void resize(int width, int height, int levelCount) {
+        if (textureId != 0 && width == this.width && height == this.height && levelCount == this.levelCount) {
+            return;
+        }
+        close();
+        try {
+            textureId = EglTool.createTexture2D(width, height, levelCount);
+            framebufferId = EglTool.createFramebuffer(textureId);
+        } catch (Exception e) {
+            close();
+            throw e;
+        }
+        this.width = width;
+        this.height = height;
+        this.levelCount = levelCount;
+    }
+
+    @Override
+    public void close() {
+        EglTool.deleteFramebuffer(framebufferId);
+        EglTool.deleteTexture(textureId);
+        framebufferId = 0;
+        textureId = 0;
+        width = 0;
+        height = 0;
+        levelCount = 0;
+        baseLevel = 0;
+    }
+
+    /**
+     * @return 估算的显存占用，有mipmap时按多出1/3计算
+     */
+    public long getMemorySize() {
+        if (textureId == 0) {
+            return 0;
+        }
+        long size = (long) width * height * 4;
+        return levelCount > 1 ? size * 4 / 3 : size;
+    }
+
+    public int getTextureId() {
+        return textureId;
+    }
+
+    public int getFramebufferId() {
+        return framebufferId;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getLevelCount() {
+        return levelCount;
+    }
+
+    public void bindFramebuffer() {
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, framebufferId);
+    }
+
+    public void unbindFramebuffer() {
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+    }
+
+    /**
+     * 在第0层绘制完成后调用，由第0层生成其他各层
+     */
+    public void generateMipmap() {
+        if (levelCount <= 1) {
+            return;
+        }
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureId);
+        setBaseLevel(0);
+        GLES20.glGenerateMipmap(GLES20.GL_TEXTURE_2D);
+    }
+
+    /**
+     * 根据输出的尺寸选择采样的层级，必须在纹理已经绑定到GL_TEXTURE_2D时调用
+     */
+    public void selectLevel(int outputWidth, int outputHeight) {
+        if (levelCount <= 1) {
+            return;
+        }
+        int level = EglTool.getMipmapLevel(Math.max(width, height), Math.max(outputWidth, outputHeight));
+        setBaseLevel(Math.min(level, levelCount - 1));
+    }
+
+    private void setBaseLevel(int level) {
+        if (level != baseLevel) {
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES30.GL_TEXTURE_BASE_LEVEL, level);
+            baseLevel = level;
+        }
+    }
+}
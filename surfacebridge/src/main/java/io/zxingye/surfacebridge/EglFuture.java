@@ -0,0 +1,111 @@
+package io.zxingye.surfacebridge;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * GL线程中命令的执行结果，可以阻塞等待，也可以注册完成后的回调（minSdk 21无法使用CompletableFuture）
+ */
+public class EglFuture<V> implements Future<V> {
+
+    private final CountDownLatch latch = new CountDownLatch(1);
+    private final List<Runnable> listeners = new ArrayList<>(1);
+    private V value;
+    private Throwable error;
+    private boolean isCancelled;
+    private boolean isDone;
+
+    static <V> EglFuture<V> completed(V value) {
+        EglFuture<V> future = new EglFuture<>();
+        future.complete(value);
+        return future;
+    }
+
+    boolean complete(V value) {
+        return finish(value, null, false);
+    }
+
+    boolean completeExceptionally(Throwable error) {
+        return finish(null, error, false);
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return finish(null, null, true);
+    }
+
+    private boolean finish(V value, Throwable error, boolean cancelled) {
+        List<Runnable> pending;
+        synchronized (this) {
+            if (isDone) {
+                return false;
+            }
+            this.value = value;
+            this.error = error;
+            this.isCancelled = cancelled;
+            this.isDone = true;
+            pending = new ArrayList<>(listeners);
+            listeners.clear();
+        }
+        latch.countDown();
+        for (Runnable listener : pending) {
+            listener.run();
+        }
+        return true;
+    }
+
+    /**
+     * 完成（包括失败和取消）后在executor中执行listener，已经完成时立即执行
+     */
+    public void addListener(Runnable listener, Executor executor) {
+        Runnable task = () -> executor.execute(listener);
+        synchronized (this) {
+            if (!isDone) {
+                listeners.add(task);
+                return;
+            }
+        }
+        task.run();
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return isCancelled;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return isDone;
+    }
+
+    @Override
+    public V get() throws InterruptedException, ExecutionException {
+        latch.await();
+        return getResult();
+    }
+
+    @Override
+    public V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!latch.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return getResult();
+    }
+
+    private synchronized V getResult() throws ExecutionException {
+        if (isCancelled) {
+            throw new CancellationException();
+        }
+        if (error != null) {
+            throw new ExecutionException(error);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,163 @@
+package io.zxingye.surfacebridge;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.util.Log;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 基于GL_EXT_disjoint_timer_query的GPU计时，按输出和格式分别统计每次绘制的GPU耗时。
+ * <p>
+ * 每次计时使用一个GL_TIME_ELAPSED_EXT查询，结果在之后的帧中通过GL_QUERY_RESULT_AVAILABLE非阻塞地轮询，
+ * 不会等待GPU。发生disjoint（比如GPU降频、上下文切换）时丢弃还没取回的结果。
+ * 查询对象预先分配，排队的查询达到上限时跳过计时。已经移除的输出的结果会被丢弃，不会再持有它的引用。
+ * 除快照外只在GL线程中使用。
+ */
+class EglGpuTimer implements AutoCloseable {
+
+    private static final String TAG = "EglGpuTimer";
+
+    private static final String EXTENSION = "GL_EXT_disjoint_timer_query";
+    // 扩展中定义的常量，GLES30中没有
+    private static final int GL_TIME_ELAPSED_EXT = 0x88BF;
+    private static final int GL_GPU_DISJOINT_EXT = 0x8FBB;
+    private static final int MAX_PENDING_QUERY = 64;
+
+    private final int[] queryIds = new int[MAX_PENDING_QUERY];
+    private final Object[] pendingOutputs = new Object[MAX_PENDING_QUERY];
+    private final FrameFormat[] pendingFormats = new FrameFormat[MAX_PENDING_QUERY];
+    private final int[] queryResult = new int[1];
+    private final Map<Object, GpuTimeStats.Window> outputWindows = new ConcurrentHashMap<>();
+    private final Map<FrameFormat, GpuTimeStats.Window> formatWindows = new ConcurrentHashMap<>();
+    private final Set<Object> outputs = new HashSet<>();
+    private int head;
+    private int pendingCount;
+    private boolean isQueryActive;
+
+    static boolean isSupported() {
+        String extensions = GLES20.glGetString(GLES20.GL_EXTENSIONS);
+        return extensions != null && extensions.contains(EXTENSION);
+    }
+
+    EglGpuTimer() {
+        GLES30.glGenQueries(queryIds.length, queryIds, 0);
+        EglTool.checkGlError("glGenQueries");
+    }
+
+    /**
+     * 开始一次计时，查询不能嵌套
+     *
+     * @param output 输出的标识，为null时不计时
+     * @return 是否开始了计时，为true时必须调用{@link #end()}
+     */
+    boolean begin(Object output, FrameFormat format) {
+        if (output == null || isQueryActive || pendingCount >= MAX_PENDING_QUERY) {
+            return false;
+        }
+        int index = (head + pendingCount) % MAX_PENDING_QUERY;
+        pendingOutputs[index] = output;
+        pendingFormats[index] = format;
+        GLES30.glBeginQuery(GL_TIME_ELAPSED_EXT, queryIds[index]);
+        isQueryActive = true;
+        return true;
+    }
+
+    void end() {
+        GLES30.glEndQuery(GL_TIME_ELAPSED_EXT);
+        isQueryActive = false;
+        pendingCount++;
+    }
+
+    /**
+     * 取回所有已经完成的查询结果，不会阻塞，每帧调用一次，没有排队的查询时不做任何GL调用
+     */
+    void poll() {
+        if (pendingCount == 0) {
+            return;
+        }
+        GLES20.glGetIntegerv(GL_GPU_DISJOINT_EXT, queryResult, 0);
+        if (queryResult[0] != 0) {
+            // disjoint期间的结果不可信，全部丢弃；查询对象可以直接复用
+            head = (head + pendingCount) % MAX_PENDING_QUERY;
+            pendingCount = 0;
+            return;
+        }
+        while (pendingCount > 0) {
+            int queryId = queryIds[head];
+            GLES30.glGetQueryObjectuiv(queryId, GLES30.GL_QUERY_RESULT_AVAILABLE, queryResult, 0);
+            if (queryResult[0] == GLES20.GL_FALSE) {
+                return;
+            }
+            GLES30.glGetQueryObjectuiv(queryId, GLES30.GL_QUERY_RESULT, queryResult, 0);
+            // 32位结果最大约4.29秒，单次绘制不会超过
+            long elapsedNs = queryResult[0] & 0xFFFFFFFFL;
+            record(pendingOutputs[head], pendingFormats[head], elapsedNs);
+            pendingOutputs[head] = null;
+            head = (head + 1) % MAX_PENDING_QUERY;
+            pendingCount--;
+        }
+    }
+
+    /**
+     * 更新当前存在的输出，移除其余输出的统计，排队中属于它们的结果之后会被丢弃
+     */
+    void setOutputs(Set<Object> outputs) {
+        this.outputs.clear();
+        this.outputs.addAll(outputs);
+        outputWindows.keySet().retainAll(outputs);
+        for (int i = 0; i < pendingCount; i++) {
+            int index = (head + i) % MAX_PENDING_QUERY;
+            if (!outputs.contains(pendingOutputs[index])) {
+                pendingOutputs[index] = null;
+            }
+        }
+    }
+
+    Map<Object, GpuTimeStats> snapshotOutputs() {
+        Map<Object, GpuTimeStats> result = new HashMap<>();
+        for (Map.Entry<Object, GpuTimeStats.Window> entry : outputWindows.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return result;
+    }
+
+    Map<FrameFormat, GpuTimeStats> snapshotFormats() {
+        Map<FrameFormat, GpuTimeStats> result = new EnumMap<>(FrameFormat.class);
+        for (Map.Entry<FrameFormat, GpuTimeStats.Window> entry : formatWindows.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return result;
+    }
+
+    @Override
+    public void close() {
+        GLES30.glDeleteQueries(queryIds.length, queryIds, 0);
+        pendingCount = 0;
+        Log.i(TAG, "close");
+    }
+
+    private void record(Object output, FrameFormat format, long elapsedNs) {
+        if (output != null) {
+            GpuTimeStats.Window outputWindow = outputWindows.get(output);
+            if (outputWindow == null && outputs.contains(output)) {
+                outputWindow = new GpuTimeStats.Window();
+                outputWindows.put(output, outputWindow);
+            }
+            if (outputWindow != null) {
+                outputWindow.add(elapsedNs);
+            }
+        }
+        GpuTimeStats.Window formatWindow = formatWindows.get(format);
+        if (formatWindow == null) {
+            formatWindow = new GpuTimeStats.Window();
+            formatWindows.put(format, formatWindow);
+        }
+        formatWindow.add(elapsedNs);
+    }
+}
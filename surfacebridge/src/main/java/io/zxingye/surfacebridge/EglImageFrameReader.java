@@ -0,0 +1,428 @@
+package io.zxingye.surfacebridge;
+
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.Size;
+import android.view.Surface;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 基于ImageReader的帧读取，GPU通过eglSwapBuffers把帧写入ImageReader的Surface，再在分发线程中读取
+ */
+public class EglImageFrameReader extends EglFrameReader {
+
+    private static final String TAG = "EglImageFrameReader";
+
+    private final ImageReader reader;
+    private final boolean directBuffer;
+    // 保护frameDataBuffer和readOnlyFrameData，分发线程读取帧和GL线程释放buffer可能同时发生
+    private final Object frameBufferLock = new Object();
+    private ByteBuffer frameDataBuffer;
+    private ByteBuffer readOnlyFrameData;
+    private volatile FrameRing frameRing;
+    // BLOCK策略下已经提交给ImageReader、还没有取出的帧数，GL线程增加，分发线程减少
+    private final AtomicInteger queuedImageCount = new AtomicInteger();
+    private volatile boolean isDispatching;
+
+    public EglImageFrameReader(ImageReader reader,
+                               FrameFormat format,
+                               Size outputSize,
+                               boolean directBuffer) {
+        super(format, outputSize);
+        this.reader = reader;
+        this.directBuffer = directBuffer;
+    }
+
+    @Override
+    public void close() {
+        isClosed = true;
+        reader.close();
+    }
+
+    @Override
+    public void setOnFrameListener(OnFrameListener listener, Handler handler) {
+        if (listener == null) {
+            reader.setOnImageAvailableListener(null, null);
+        } else {
+            FrameTask frameTask = new FrameTask(listener, () -> isDispatching = false);
+            reader.setOnImageAvailableListener(reader -> {
+                // 交给callbackExecutor回调时，上一帧还没处理完就丢弃新帧，避免覆盖正在使用的帧数据
+                if (isDispatching) {
+                    dropLatestImage();
+                    return;
+                }
+                ByteBuffer frameData = acquireLNextFrame();
+                if (frameData != null) {
+                    isDispatching = true;
+                    deliver(handler, frameTask.setFrameData(frameData));
+                }
+            }, handler);
+        }
+    }
+
+    /**
+     * 以零拷贝的方式回调帧，listener拿到的是Image的租借视图。
+     * 同一时间最多租借 maxImages - 2 个Image，保证acquireLatestImage和生产者各自还有可用的buffer，
+     * 超出时只记录有新帧到达，等租借的Image释放后再回调最新的一帧。
+     */
+    @Override
+    public void setOnFrameImageListener(OnFrameImageListener listener, Handler handler) {
+        if (listener == null) {
+            reader.setOnImageAvailableListener(null, null);
+        } else {
+            reader.setOnImageAvailableListener(new FrameImageDispatcher(listener, handler), handler);
+        }
+    }
+
+    /**
+     * 以帧环的方式回调帧，帧数据会被拷贝到预分配的帧环中，使用者可以同时持有多帧。
+     * 帧环的每一帧大小和ImageReader的输出大小一致，reader重建时帧环也会随之重建。
+     */
+    @Override
+    public void setOnFrameRingListener(OnFrameRingListener listener,
+                                       int capacity,
+                                       FrameRing.Policy policy,
+                                       Handler handler) {
+        if (listener == null) {
+            reader.setOnImageAvailableListener(null, null);
+            frameRing = null;
+            return;
+        }
+        FrameRingDispatcher dispatcher = new FrameRingDispatcher(listener, capacity, policy, handler);
+        queuedImageCount.set(0);
+        frameRing = dispatcher.ring;
+        reader.setOnImageAvailableListener(dispatcher, handler);
+    }
+
+    /**
+     * BLOCK策略下，排队的帧达到帧环的空闲帧数，或者快要占满ImageReader的buffer时不再绘制，
+     * 避免GL线程在eglSwapBuffers中等待ImageReader的空闲buffer
+     */
+    @Override
+    public boolean canAcceptFrame() {
+        FrameRing ring = frameRing;
+        if (ring == null || ring.getPolicy() != FrameRing.Policy.BLOCK) {
+            return true;
+        }
+        int queuedCount = queuedImageCount.get();
+        return queuedCount < reader.getMaxImages() - 1 && queuedCount < ring.getFreeCount();
+    }
+
+    @Override
+    public void onFrameDrawn() {
+        FrameRing ring = frameRing;
+        if (ring != null && ring.getPolicy() == FrameRing.Policy.BLOCK) {
+            queuedImageCount.incrementAndGet();
+        }
+    }
+
+    @Override
+    public long getMemorySize() {
+        // ImageReader固定输出RGBA_8888，每个像素4个字节
+        long imageSize = (long) reader.getWidth() * reader.getHeight() * 4;
+        long frameDataSize = frameDataBuffer != null ? frameDataBuffer.capacity() : 0;
+        return imageSize * reader.getMaxImages() + frameDataSize;
+    }
+
+    @Override
+    public long releaseFrameBuffer() {
+        synchronized (frameBufferLock) {
+            if (isDispatching || frameDataBuffer == null) {
+                return 0;
+            }
+            long size = frameDataBuffer.capacity();
+            frameDataBuffer = null;
+            readOnlyFrameData = null;
+            return size;
+        }
+    }
+
+    @Override
+    public Surface getSurface() {
+        return reader.getSurface();
+    }
+
+    private void dropLatestImage() {
+        try (Image image = reader.acquireLatestImage()) {
+            if (image != null) {
+                Log.d(TAG, "drop frame: listener is busy");
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "acquireLatestImage fail: " + e);
+        }
+    }
+
+    @Override
+    public ByteBuffer acquireLNextFrame() {
+        try (Image image = reader.acquireLatestImage()) {
+            if (image == null) {
+                return null;
+            }
+            Image.Plane[] planes = image.getPlanes();
+            if (planes == null || planes.length == 0) {
+                return null;
+            }
+            int maxReadLength = planes[0].getBuffer().remaining();
+            if (maxReadLength <= 0) {
+                return null;
+            }
+            synchronized (frameBufferLock) {
+                if (frameDataBuffer == null || frameDataBuffer.capacity() < maxReadLength) {
+                    if (directBuffer) {
+                        frameDataBuffer = ByteBuffer.allocateDirect(maxReadLength);
+                    } else {
+                        frameDataBuffer = ByteBuffer.allocate(maxReadLength);
+                    }
+                    readOnlyFrameData = frameDataBuffer.asReadOnlyBuffer();
+                }
+                frameDataBuffer.clear();
+                copyPlane(image, planes[0], frameDataBuffer);
+                // 只读视图和frameDataBuffer共享内容，只有buffer重新分配时才需要重新创建
+                return (ByteBuffer) readOnlyFrameData.clear();
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "acquireLNextFrame fail: " + e);
+            return null;
+        }
+    }
+
+    /**
+     * 零拷贝回调的分发器，每次设置监听时创建一个。回调和归还用的任务都会复用，每帧只创建FrameImage本身
+     */
+    private final class FrameImageDispatcher implements ImageReader.OnImageAvailableListener,
+            FrameImage.OnReleaseListener {
+
+        private final OnFrameImageListener listener;
+        private final Handler handler;
+        // 等待回调的帧，每次deliver对应一次deliverTask的执行
+        private final ArrayDeque<FrameImage> deliveringImages = new ArrayDeque<>();
+        // 使用者已经释放、等待在分发线程中归还给ImageReader的帧
+        private final ArrayDeque<FrameImage> releasedImages = new ArrayDeque<>();
+        private final Runnable deliverTask = this::deliverFrameImage;
+        private final Runnable releaseTask = this::closeReleasedImages;
+        // 以下两个变量只在分发线程中访问
+        private int leasedImageCount;
+        private boolean hasPendingImage;
+
+        private FrameImageDispatcher(OnFrameImageListener listener, Handler handler) {
+            this.listener = listener;
+            this.handler = handler;
+        }
+
+        @Override
+        public void onImageAvailable(ImageReader imageReader) {
+            dispatchFrameImage();
+        }
+
+        /**
+         * 可以在任意线程调用，总是异步post回分发线程归还，release不会阻塞调用方，在回调中释放时也不会重入dispatchFrameImage
+         */
+        @Override
+        public void onRelease(FrameImage frameImage) {
+            synchronized (releasedImages) {
+                releasedImages.add(frameImage);
+            }
+            if (!handler.post(releaseTask)) {
+                synchronized (releasedImages) {
+                    releasedImages.remove(frameImage);
+                }
+                frameImage.getImage().close();
+            }
+        }
+
+        private void dispatchFrameImage() {
+            if (leasedImageCount >= Math.max(1, reader.getMaxImages() - 2)) {
+                hasPendingImage = true;
+                return;
+            }
+            hasPendingImage = false;
+            Image image;
+            try {
+                image = reader.acquireLatestImage();
+            } catch (Exception e) {
+                Log.e(TAG, "acquireLatestImage fail: " + e);
+                return;
+            }
+            if (image == null) {
+                return;
+            }
+            leasedImageCount++;
+            synchronized (deliveringImages) {
+                deliveringImages.add(new FrameImage(image, outputSize, format, this));
+            }
+            deliver(handler, deliverTask);
+        }
+
+        private void deliverFrameImage() {
+            FrameImage frameImage;
+            synchronized (deliveringImages) {
+                frameImage = deliveringImages.poll();
+            }
+            if (frameImage == null) {
+                return;
+            }
+            if (isClosed) {
+                frameImage.release();
+                return;
+            }
+            try {
+                listener.onFrame(frameImage);
+            } catch (RuntimeException e) {
+                // 监听抛出异常时使用者不会再释放这一帧，这里归还租借，否则租借数不会减少，之后的帧都不会再回调
+                frameImage.release();
+                throw e;
+            }
+        }
+
+        private void closeReleasedImages() {
+            while (true) {
+                FrameImage frameImage;
+                synchronized (releasedImages) {
+                    frameImage = releasedImages.poll();
+                }
+                if (frameImage == null) {
+                    break;
+                }
+                frameImage.getImage().close();
+                leasedImageCount--;
+            }
+            if (hasPendingImage) {
+                dispatchFrameImage();
+            }
+        }
+    }
+
+    /**
+     * 帧环回调的分发器，每次设置监听时创建一个，回调用的任务都会复用，分发过程中不会有内存分配
+     */
+    private final class FrameRingDispatcher implements ImageReader.OnImageAvailableListener {
+
+        private final OnFrameRingListener listener;
+        private final Handler handler;
+        private final FrameRing ring;
+        private final boolean isBlock;
+        private final Runnable frameAvailableTask;
+        private final Runnable ringExhaustedTask;
+        private final Runnable fillTask = () -> fillFrameRing(false);
+
+        private FrameRingDispatcher(OnFrameRingListener listener,
+                                    int capacity,
+                                    FrameRing.Policy policy,
+                                    Handler handler) {
+            this.listener = listener;
+            this.handler = handler;
+            this.isBlock = policy == FrameRing.Policy.BLOCK;
+            // ImageReader固定输出RGBA_8888，每个像素4个字节
+            long frameSize = (long) reader.getWidth() * reader.getHeight() * 4;
+            this.ring = new FrameRing(capacity, frameSize, outputSize, format, policy,
+                    isBlock ? this::onFrameReleased : null);
+            this.frameAvailableTask = () -> {
+                if (!isClosed) {
+                    listener.onFrameAvailable(ring);
+                }
+            };
+            this.ringExhaustedTask = () -> {
+                if (!isClosed) {
+                    listener.onRingExhausted(ring);
+                }
+            };
+        }
+
+        @Override
+        public void onImageAvailable(ImageReader imageReader) {
+            fillFrameRing(true);
+        }
+
+        /**
+         * BLOCK策略下有帧归还时回调，可能在任意线程，切回分发线程继续从ImageReader取帧
+         */
+        private void onFrameReleased() {
+            if (handler.getLooper() == Looper.myLooper()) {
+                fillFrameRing(false);
+            } else {
+                handler.post(fillTask);
+            }
+        }
+
+        private void fillFrameRing(boolean fromImageAvailable) {
+            boolean hasNewFrame = false;
+            while (true) {
+                FrameRing.Frame frame = ring.obtainFrame();
+                if (frame == null) {
+                    if (!isBlock) {
+                        try (Image image = reader.acquireLatestImage()) {
+                            if (image != null) {
+                                ring.onFrameDropped();
+                            }
+                        } catch (Exception e) {
+                            Log.e(TAG, "acquireLatestImage fail: " + e);
+                        }
+                    }
+                    if (fromImageAvailable) {
+                        deliver(handler, ringExhaustedTask);
+                    }
+                    break;
+                }
+                boolean isSuccessful = false;
+                try (Image image = isBlock ? reader.acquireNextImage() : reader.acquireLatestImage()) {
+                    if (image != null) {
+                        if (isBlock) {
+                            queuedImageCount.decrementAndGet();
+                        }
+                        Image.Plane[] planes = image.getPlanes();
+                        if (planes != null && planes.length > 0) {
+                            copyPlane(image, planes[0], frame.prepareWrite(image.getTimestamp()));
+                            frame.finishWrite();
+                            isSuccessful = true;
+                        }
+                    }
+                } catch (Exception e) {
+                    Log.e(TAG, "fillFrameRing fail: " + e);
+                }
+                if (!isSuccessful) {
+                    ring.recycleFrame(frame);
+                    break;
+                }
+                ring.queueFrame(frame);
+                hasNewFrame = true;
+                if (!isBlock) {
+                    break;
+                }
+            }
+            if (hasNewFrame) {
+                deliver(handler, frameAvailableTask);
+            }
+        }
+    }
+
+    /**
+     * 逐行拷贝plane中的数据到dst中，去掉每行末尾的padding
+     */
+    private static void copyPlane(Image image, Image.Plane plane, ByteBuffer dst) {
+        ByteBuffer data = plane.getBuffer();
+        int imageWidth = image.getWidth();
+        int imageHeight = image.getHeight();
+        int pixelStride = plane.getPixelStride();
+        int rowStride = plane.getRowStride();
+        int rowPadding = rowStride - pixelStride * imageWidth;
+        int maxLimit = data.limit();
+        int eachReadLength = imageWidth * pixelStride;
+        for (int readHeight = 0; readHeight < imageHeight && data.remaining() > 0; readHeight++) {
+            int readLength = Math.min(data.remaining(), eachReadLength);
+            data.limit(data.position() + readLength);
+            dst.put(data);
+            data.limit(maxLimit);
+            int skipLength = Math.min(data.remaining(), rowPadding);
+            if (skipLength > 0) {
+                data.position(data.position() + skipLength);
+            }
+        }
+    }
+
+}
\ No newline at end of file
@@ -0,0 +1,338 @@
+package io.zxingye.surfacebridge;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.opengl.GLES31;
+import android.os.Handler;
+import android.util.Log;
+import android.util.Size;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 基于PBO的帧读取，GPU把帧绘制到FBO的纹理中，再通过glReadPixels异步写入GL_PIXEL_PACK_BUFFER，
+ * 每个PBO配一个glFenceSync，绘制线程在后续帧中轮询fence，完成后用glMapBufferRange映射读取，避免了BufferQueue的往返延迟。
+ * <p>
+ * 也可以不创建FBO，由计算着色器把帧数据直接写入缓冲区（以SSBO绑定），见{@link #createStorageReader}。
+ * <p>
+ * 除了setOnFrameListener之外，其他方法都必须在GL线程调用。
+ */
+public class EglPixelBufferFrameReader extends EglFrameReader {
+
+    private static final String TAG = "EglPixelBufferReader";
+
+    private final int width;
+    private final int height;
+    private final int attachmentSize;
+    private final int frameSize;
+    private final boolean directBuffer;
+    private final FramePacker packer;
+    private final int[] pixelBuffers;
+    private final long[] fences;
+    private final int[] textureIds;
+    private int framebufferId;
+    private int writeIndex;
+    private int pendingCount;
+
+    private ByteBuffer frameDataBuffer;
+    private ByteBuffer readOnlyFrameData;
+    private OnFrameListener listener;
+    private FrameTask frameTask;
+    private Handler handler;
+    private volatile boolean isDispatching;
+
+    /**
+     * 创建没有FBO的读取器，每个缓冲区由计算着色器通过{@link #bindStorageBuffer(int)}写入
+     *
+     * @param frameSize 每帧的字节数，即回调给监听者的数据大小
+     */
+    public static EglPixelBufferFrameReader createStorageReader(int frameSize,
+                                                                int bufferCount,
+                                                                FrameFormat format,
+                                                                Size outputSize,
+                                                                boolean directBuffer) {
+        return new EglPixelBufferFrameReader(0, 0, frameSize, bufferCount, 0, null,
+                format, outputSize, directBuffer);
+    }
+
+    /**
+     * @param width       实际绘制的宽，即program的viewport宽
+     * @param height      实际绘制的高，即program的viewport高
+     * @param bufferCount PBO的数量，一般为2或3
+     */
+    public EglPixelBufferFrameReader(int width,
+                                     int height,
+                                     int bufferCount,
+                                     FrameFormat format,
+                                     Size outputSize,
+                                     boolean directBuffer) {
+        this(width, height, bufferCount, 1, null, format, outputSize, directBuffer);
+    }
+
+    /**
+     * @param attachmentCount FBO的颜色附件数量，大于1时用于MRT（多渲染目标）绘制，每个附件的大小都是width x height
+     * @param packer          把所有附件的数据（按附件顺序首尾相接）转换为最终的帧数据，为null时直接拷贝
+     */
+    public EglPixelBufferFrameReader(int width,
+                                     int height,
+                                     int bufferCount,
+                                     int attachmentCount,
+                                     FramePacker packer,
+                                     FrameFormat format,
+                                     Size outputSize,
+                                     boolean directBuffer) {
+        this(width, height, width * height * 4 * attachmentCount, bufferCount, attachmentCount, packer,
+                format, outputSize, directBuffer);
+    }
+
+    private EglPixelBufferFrameReader(int width,
+                                      int height,
+                                      int frameSize,
+                                      int bufferCount,
+                                      int attachmentCount,
+                                      FramePacker packer,
+                                      FrameFormat format,
+                                      Size outputSize,
+                                      boolean directBuffer) {
+        super(format, outputSize);
+        this.width = width;
+        this.height = height;
+        this.attachmentSize = width * height * 4;
+        this.frameSize = frameSize;
+        this.directBuffer = directBuffer;
+        this.packer = packer;
+        this.pixelBuffers = new int[Math.max(2, bufferCount)];
+        this.fences = new long[pixelBuffers.length];
+        this.textureIds = new int[attachmentCount];
+        try {
+            for (int i = 0; i < textureIds.length; i++) {
+                textureIds[i] = EglTool.createTexture2D(width, height);
+            }
+            if (attachmentCount > 0) {
+                framebufferId = EglTool.createFramebuffer(textureIds);
+            }
+            for (int i = 0; i < pixelBuffers.length; i++) {
+                pixelBuffers[i] = EglTool.createPixelPackBuffer(frameSize);
+            }
+        } catch (Exception e) {
+            close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() {
+        isClosed = true;
+        for (int i = 0; i < fences.length; i++) {
+            if (fences[i] != 0) {
+                GLES30.glDeleteSync(fences[i]);
+                fences[i] = 0;
+            }
+        }
+        for (int i = 0; i < pixelBuffers.length; i++) {
+            EglTool.deleteBo(pixelBuffers[i]);
+            pixelBuffers[i] = 0;
+        }
+        EglTool.deleteFramebuffer(framebufferId);
+        framebufferId = 0;
+        for (int i = 0; i < textureIds.length; i++) {
+            EglTool.deleteTexture(textureIds[i]);
+            textureIds[i] = 0;
+        }
+        pendingCount = 0;
+    }
+
+    @Override
+    public synchronized void setOnFrameListener(OnFrameListener listener, Handler handler) {
+        this.listener = listener;
+        this.handler = handler;
+        this.frameTask = listener != null ? new FrameTask(listener, () -> isDispatching = false) : null;
+    }
+
+    @Override
+    public long getMemorySize() {
+        long frameDataSize = frameDataBuffer != null ? frameDataBuffer.capacity() : 0;
+        return (long) frameSize * pixelBuffers.length + (long) attachmentSize * textureIds.length + frameDataSize;
+    }
+
+    /**
+     * 和dispatchPixels一样只在GL线程中调用
+     */
+    @Override
+    public long releaseFrameBuffer() {
+        if (isDispatching || frameDataBuffer == null) {
+            return 0;
+        }
+        long size = frameDataBuffer.capacity();
+        frameDataBuffer = null;
+        readOnlyFrameData = null;
+        return size;
+    }
+
+    /**
+     * @return FBO的颜色附件数量，为0时表示由计算着色器写入
+     */
+    public int getAttachmentCount() {
+        return textureIds.length;
+    }
+
+    public void bindFramebuffer() {
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, framebufferId);
+    }
+
+    public int getFramebufferId() {
+        return framebufferId;
+    }
+
+    public void unbindFramebuffer() {
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+    }
+
+    /**
+     * 在帧绘制到FBO之后调用，把当前帧异步读入下一个空闲的PBO。
+     * 如果所有PBO都还在等待，会丢弃最早的一帧，保证绘制线程不会被阻塞。
+     */
+    public void readPixels() {
+        if (framebufferId == 0) {
+            return;
+        }
+        reservePixelBuffer();
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, framebufferId);
+        GLES20.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, pixelBuffers[writeIndex]);
+        for (int i = 0; i < textureIds.length; i++) {
+            GLES30.glReadBuffer(GLES30.GL_COLOR_ATTACHMENT0 + i);
+            GLES30.glReadPixels(0, 0, width, height, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, attachmentSize * i);
+        }
+        GLES30.glReadBuffer(GLES30.GL_COLOR_ATTACHMENT0);
+        GLES20.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, GLES20.GL_NONE);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        commitPixelBuffer();
+    }
+
+    /**
+     * 把下一个空闲的缓冲区绑定为SSBO，供计算着色器写入当前帧，写入后必须调用{@link #commitStorageBuffer(int)}。
+     *
+     * @param binding 着色器中buffer block的binding
+     * @return 读取器已经关闭时返回false
+     */
+    public boolean bindStorageBuffer(int binding) {
+        if (pixelBuffers[0] == 0) {
+            return false;
+        }
+        reservePixelBuffer();
+        GLES30.glBindBufferBase(GLES31.GL_SHADER_STORAGE_BUFFER, binding, pixelBuffers[writeIndex]);
+        return true;
+    }
+
+    /**
+     * 在dispatch之后调用，保证映射读取时能看到计算着色器写入的数据
+     */
+    public void commitStorageBuffer(int binding) {
+        GLES30.glBindBufferBase(GLES31.GL_SHADER_STORAGE_BUFFER, binding, 0);
+        GLES31.glMemoryBarrier(GLES31.GL_BUFFER_UPDATE_BARRIER_BIT);
+        commitPixelBuffer();
+    }
+
+    private void reservePixelBuffer() {
+        if (pendingCount == pixelBuffers.length) {
+            int oldest = getPendingIndex(0);
+            GLES30.glDeleteSync(fences[oldest]);
+            fences[oldest] = 0;
+            pendingCount--;
+        }
+    }
+
+    private void commitPixelBuffer() {
+        fences[writeIndex] = GLES30.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        writeIndex = (writeIndex + 1) % pixelBuffers.length;
+        pendingCount++;
+    }
+
+    /**
+     * 轮询已经提交的PBO，fence完成的帧会被映射读取并分发，不会等待未完成的fence。
+     */
+    public void pollPixels() {
+        while (pendingCount > 0) {
+            int index = getPendingIndex(0);
+            int status = GLES30.glClientWaitSync(fences[index], GLES30.GL_SYNC_FLUSH_COMMANDS_BIT, 0);
+            if (status == GLES30.GL_TIMEOUT_EXPIRED) {
+                return;
+            }
+            GLES30.glDeleteSync(fences[index]);
+            fences[index] = 0;
+            pendingCount--;
+            if (status == GLES30.GL_WAIT_FAILED) {
+                Log.w(TAG, "pollPixels fail: glClientWaitSync = GL_WAIT_FAILED");
+                continue;
+            }
+            // 只分发最新完成的一帧，分发线程还在处理上一帧时直接丢弃，和ImageReader的acquireLatestImage语义一致
+            if (pendingCount == 0 || !isFenceSignaled(getPendingIndex(0))) {
+                dispatchPixels(index);
+            }
+        }
+    }
+
+    private boolean isFenceSignaled(int index) {
+        int status = GLES30.glClientWaitSync(fences[index], 0, 0);
+        return status == GLES30.GL_ALREADY_SIGNALED || status == GLES30.GL_CONDITION_SATISFIED;
+    }
+
+    private int getPendingIndex(int offset) {
+        int length = pixelBuffers.length;
+        return (writeIndex - pendingCount + offset + length) % length;
+    }
+
+    private void dispatchPixels(int index) {
+        FrameTask frameTask;
+        Handler handler;
+        synchronized (this) {
+            frameTask = this.frameTask;
+            handler = this.handler;
+        }
+        if (frameTask == null || handler == null || isDispatching) {
+            return;
+        }
+        if (frameDataBuffer == null) {
+            frameDataBuffer = directBuffer ? ByteBuffer.allocateDirect(frameSize) : ByteBuffer.allocate(frameSize);
+            readOnlyFrameData = frameDataBuffer.asReadOnlyBuffer();
+        }
+        GLES20.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, pixelBuffers[index]);
+        ByteBuffer mapped = null;
+        try {
+            mapped = (ByteBuffer) GLES30.glMapBufferRange(
+                    GLES30.GL_PIXEL_PACK_BUFFER, 0, frameSize, GLES30.GL_MAP_READ_BIT);
+            if (mapped == null) {
+                Log.w(TAG, "dispatchPixels fail: glMapBufferRange = null");
+                return;
+            }
+            frameDataBuffer.clear();
+            if (packer != null) {
+                packer.pack(mapped, frameDataBuffer);
+            } else {
+                frameDataBuffer.put(mapped);
+            }
+            frameDataBuffer.flip();
+        } finally {
+            // 拷贝或者packer抛出异常时也要解除映射，否则之后glReadPixels写入这个PBO都会失败
+            if (mapped != null) {
+                GLES30.glUnmapBuffer(GLES30.GL_PIXEL_PACK_BUFFER);
+            }
+            GLES20.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, GLES20.GL_NONE);
+        }
+        isDispatching = true;
+        // 只读视图和frameDataBuffer共享内容，每帧只需要重置位置
+        readOnlyFrameData.clear();
+        readOnlyFrameData.limit(frameDataBuffer.limit());
+        deliver(handler, frameTask.setFrameData(readOnlyFrameData));
+    }
+
+    public interface FramePacker {
+        /**
+         * 在GL线程中调用，src为映射出来的PBO数据，必须在方法返回前完成读取
+         *
+         * @param src 所有颜色附件的数据，每个附件 width x height x 4 字节，按附件顺序排列
+         * @param dst 最终回调给监听者的帧数据
+         */
+        void pack(ByteBuffer src, ByteBuffer dst);
+    }
+}
@@ -2,6 +2,7 @@ package io.zxingye.surfacebridge;
 
 import android.graphics.PixelFormat;
 import android.media.ImageReader;
+import android.opengl.GLES11Ext;
 import android.opengl.GLES20;
 import android.opengl.GLES30;
 import android.util.Size;
@@ -29,6 +30,8 @@ public abstract class EglProgram implements AutoCloseable {
 
     protected final EglBufferObjectHolder eglBOHolder;
     protected int vertexVAO;
+    // 本次绘制使用的VAO，默认是program自己的、使用共享顶点VBO的VAO
+    private int drawVAO;
     protected int programId;
 
 
@@ -39,7 +42,17 @@ public abstract class EglProgram implements AutoCloseable {
     public abstract FrameFormat getFrameFormat();
 
     protected EglProgram(String pixelShaderStr, EglBufferObjectHolder eglBOHolder) {
+        this(pixelShaderStr, eglBOHolder, GLES11Ext.GL_TEXTURE_EXTERNAL_OES);
+    }
+
+    /**
+     * @param textureTarget 输入纹理的类型，GL_TEXTURE_EXTERNAL_OES或GL_TEXTURE_2D（中间纹理）
+     */
+    protected EglProgram(String pixelShaderStr, EglBufferObjectHolder eglBOHolder, int textureTarget) {
         this.eglBOHolder = eglBOHolder;
+        if (textureTarget == GLES20.GL_TEXTURE_2D) {
+            pixelShaderStr = EglTool.toTexture2DShader(pixelShaderStr);
+        }
         try {
             programId = EglTool.createProgram(VERTEX_SHADER, pixelShaderStr);
 
@@ -63,21 +76,53 @@ public abstract class EglProgram implements AutoCloseable {
         programId = 0;
     }
 
+    public int getProgramId() {
+        return programId;
+    }
+
     public void draw(int viewportWidth, int viewportHeight) {
+        draw(viewportWidth, viewportHeight, vertexVAO);
+    }
+
+    /**
+     * @param vaoId 顶点数据所在的VAO，见{@link EglVertexArray}
+     */
+    public void draw(int viewportWidth, int viewportHeight, int vaoId) {
+        drawVAO = vaoId;
         EglTool.setShaderProgram(programId);
         EglTool.setViewportSize(getRealViewportWidth(viewportWidth), getRealViewportHeight(viewportHeight));
         onDraw(viewportWidth, viewportHeight);
     }
 
     protected void onDraw(int width, int height) {
-        EglTool.drawArraysByVao(vertexVAO, GLES20.GL_TRIANGLE_STRIP, eglBOHolder.getVertexCount());
+        EglTool.drawArraysByVao(drawVAO, GLES20.GL_TRIANGLE_STRIP, eglBOHolder.getVertexCount());
     }
 
     public EglFrameReader createEglFrameReader(Size size, boolean directBuffer) {
+        return createEglFrameReader(size, new FrameReaderConfig.Builder()
+                .setDirectBuffer(directBuffer)
+                .build());
+    }
+
+    public EglFrameReader createEglFrameReader(Size size, FrameReaderConfig config) {
+        int width = getRealViewportWidth(size.getWidth());
+        int height = getRealViewportHeight(size.getHeight());
+        if (config.getBackend() == FrameReaderConfig.Backend.PIXEL_BUFFER) {
+            return new EglPixelBufferFrameReader(
+                    width,
+                    height,
+                    config.getMaxImages(),
+                    getFrameFormat(),
+                    size,
+                    config.isDirectBuffer());
+        }
         ImageReader reader = EglTool.createImageReader(
-                getRealViewportWidth(size.getWidth()),
-                getRealViewportHeight(size.getHeight()),
-                PixelFormat.RGBA_8888);
-        return new EglFrameReader(reader, getFrameFormat(), size, directBuffer);
+                width,
+                height,
+                PixelFormat.RGBA_8888,
+                config.getMaxImages(),
+                config.getUsage(),
+                config.getDataSpace());
+        return new EglImageFrameReader(reader, getFrameFormat(), size, config.isDirectBuffer());
     }
 }
@@ -2,8 +2,8 @@ package io.zxingye.surfacebridge;
 
 public class EglProgramBGRA extends EglProgram {
 
-    public EglProgramBGRA(EglBufferObjectHolder eglBOHolder) {
-        super(FRAGMENT_SHADER_BGRA, eglBOHolder);
+    public EglProgramBGRA(EglBufferObjectHolder eglBOHolder, int textureTarget) {
+        super(FRAGMENT_SHADER_BGRA, eglBOHolder, textureTarget);
     }
 
     @Override
@@ -2,8 +2,8 @@ package io.zxingye.surfacebridge;
 
 public class EglProgramBGRX extends EglProgram {
 
-    public EglProgramBGRX(EglBufferObjectHolder eglBOHolder) {
-        super(FRAGMENT_SHADER_BGRX, eglBOHolder);
+    public EglProgramBGRX(EglBufferObjectHolder eglBOHolder, int textureTarget) {
+        super(FRAGMENT_SHADER_BGRX, eglBOHolder, textureTarget);
     }
 
     @Override
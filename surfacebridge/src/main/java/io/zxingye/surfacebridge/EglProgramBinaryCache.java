@@ -0,0 +1,202 @@
+package io.zxingye.surfacebridge;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.util.Log;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * 已链接program的二进制磁盘缓存，通过glGetProgramBinary保存、glProgramBinary加载，再次启动时可以跳过着色器的编译和链接。
+ * <p>
+ * 缓存放在缓存目录下专用的{@link #CACHE_DIR_NAME}子目录中，再按GL_VENDOR、GL_RENDERER、GL_VERSION分目录存放，
+ * 驱动升级后旧目录会被删除，清理只发生在专用子目录内；文件名是着色器源码的摘要。
+ * 加载失败（比如驱动拒绝了二进制）时删除该文件并返回0，由调用方重新编译。所有IO错误都只打印日志，不会抛出。
+ * 除{@link #setCacheDir(File)}外都需要在GL线程中调用。
+ */
+final class EglProgramBinaryCache {
+
+    private static final String TAG = "EglProgramBinaryCache";
+
+    static final String CACHE_DIR_NAME = "surfacebridge_program_cache";
+
+    private static volatile File cacheDir;
+    private static File cleanedRendererDir;
+
+    private EglProgramBinaryCache() {
+    }
+
+    /**
+     * @param dir 缓存目录，可以是应用共用的目录，缓存只写入其中的{@link #CACHE_DIR_NAME}子目录；为null时关闭缓存
+     */
+    static void setCacheDir(File dir) {
+        cacheDir = dir != null ? new File(dir, CACHE_DIR_NAME) : null;
+    }
+
+    static boolean isEnabled() {
+        return cacheDir != null;
+    }
+
+    /**
+     * @return 从缓存加载的program，没有缓存或者加载失败时返回0
+     */
+    static int load(String... shaderSources) {
+        File file = getCacheFile(shaderSources);
+        if (file == null || !file.isFile()) {
+            return 0;
+        }
+        int format;
+        byte[] binary;
+        try (DataInputStream input = new DataInputStream(new FileInputStream(file))) {
+            format = input.readInt();
+            binary = new byte[input.readInt()];
+            input.readFully(binary);
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "load fail: " + file + ", " + e);
+            deleteFile(file);
+            return 0;
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(binary.length).order(ByteOrder.nativeOrder());
+        buffer.put(binary).rewind();
+        int programId = GLES20.glCreateProgram();
+        if (programId <= 0) {
+            return 0;
+        }
+        // program是在绘制中按需加载的，非调试模式下之前的GL错误可能还没有被取出，
+        // 这里先取出并打印，再只根据GL_LINK_STATUS判断，避免把有效的二进制当作被拒绝而删除
+        EglTool.pollGlError("before glProgramBinary");
+        GLES30.glProgramBinary(programId, format, buffer, binary.length);
+        int[] linkStatus = new int[1];
+        GLES20.glGetProgramiv(programId, GLES20.GL_LINK_STATUS, linkStatus, 0);
+        if (linkStatus[0] != GLES20.GL_TRUE) {
+            Log.w(TAG, "load fail: binary is rejected, " + file.getName());
+            GLES20.glDeleteProgram(programId);
+            deleteFile(file);
+            return 0;
+        }
+        return programId;
+    }
+
+    /**
+     * 保存已经链接成功的program，program链接前最好设置GL_PROGRAM_BINARY_RETRIEVABLE_HINT
+     */
+    static void save(int programId, String... shaderSources) {
+        File file = getCacheFile(shaderSources);
+        if (file == null) {
+            return;
+        }
+        int[] length = new int[1];
+        GLES20.glGetProgramiv(programId, GLES30.GL_PROGRAM_BINARY_LENGTH, length, 0);
+        if (length[0] <= 0) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(length[0]).order(ByteOrder.nativeOrder());
+        int[] written = new int[1];
+        int[] format = new int[1];
+        // 同load，先取出之前遗留的GL错误，保证下面的检查只针对glGetProgramBinary
+        EglTool.pollGlError("before glGetProgramBinary");
+        GLES30.glGetProgramBinary(programId, length[0], written, 0, format, 0, buffer);
+        if (!EglTool.pollGlError("glGetProgramBinary") || written[0] <= 0) {
+            return;
+        }
+        byte[] binary = new byte[written[0]];
+        buffer.get(binary);
+        File parent = file.getParentFile();
+        File tmpFile = new File(parent, file.getName() + ".tmp");
+        try {
+            if (!parent.isDirectory() && !parent.mkdirs()) {
+                throw new IOException("mkdirs fail: " + parent);
+            }
+            try (DataOutputStream output = new DataOutputStream(new FileOutputStream(tmpFile))) {
+                output.writeInt(format[0]);
+                output.writeInt(binary.length);
+                output.write(binary);
+            }
+            // 先写临时文件再重命名，避免进程中途被杀时留下不完整的缓存
+            if (!tmpFile.renameTo(file)) {
+                throw new IOException("rename fail: " + tmpFile);
+            }
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "save fail: " + file + ", " + e);
+            deleteFile(tmpFile);
+        }
+    }
+
+    private static File getCacheFile(String... shaderSources) {
+        File dir = cacheDir;
+        if (dir == null) {
+            return null;
+        }
+        String renderer = GLES20.glGetString(GLES20.GL_VENDOR)
+                + "|" + GLES20.glGetString(GLES20.GL_RENDERER)
+                + "|" + GLES20.glGetString(GLES20.GL_VERSION);
+        String rendererDigest = digest(renderer);
+        String sourceDigest = digest(shaderSources);
+        if (rendererDigest == null || sourceDigest == null) {
+            return null;
+        }
+        File rendererDir = new File(dir, rendererDigest);
+        removeStaleRendererDir(dir, rendererDir);
+        return new File(rendererDir, sourceDigest + ".bin");
+    }
+
+    /**
+     * 每个进程、每个缓存目录只清理一次
+     */
+    private static synchronized void removeStaleRendererDir(File dir, File rendererDir) {
+        if (rendererDir.equals(cleanedRendererDir)) {
+            return;
+        }
+        cleanedRendererDir = rendererDir;
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory() && !child.equals(rendererDir)) {
+                File[] files = child.listFiles();
+                if (files != null) {
+                    for (File file : files) {
+                        deleteFile(file);
+                    }
+                }
+                deleteFile(child);
+                Log.i(TAG, "remove stale cache: " + child.getName());
+            }
+        }
+    }
+
+    private static String digest(String... values) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            for (String value : values) {
+                digest.update(String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+            StringBuilder builder = new StringBuilder();
+            for (byte b : digest.digest()) {
+                builder.append(String.format("%02x", b));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            Log.w(TAG, "digest fail: " + e);
+            return null;
+        }
+    }
+
+    private static void deleteFile(File file) {
+        if (file.exists() && !file.delete()) {
+            Log.w(TAG, "delete fail: " + file);
+        }
+    }
+}
@@ -2,8 +2,8 @@ package io.zxingye.surfacebridge;
 
 public class EglProgramI444 extends EglProgramYUV {
 
-    public EglProgramI444(EglBufferObjectHolder eglBOHolder) {
-        super(FRAGMENT_SHADER_RGB_TO_I444, eglBOHolder);
+    public EglProgramI444(EglBufferObjectHolder eglBOHolder, int textureTarget) {
+        super(FRAGMENT_SHADER_RGB_TO_I444, eglBOHolder, textureTarget);
     }
 
     @Override
@@ -2,25 +2,15 @@ package io.zxingye.surfacebridge;
 
 import android.opengl.GLES20;
 
-public class EglProgramNV21 extends EglProgramYUV {
+public class EglProgramNV21 extends EglProgramYUV420 {
 
     private final int offsetLoc;
 
-    public EglProgramNV21(EglBufferObjectHolder eglBOHolder) {
-        super(FRAGMENT_SHADER_RGB_TO_NV21, eglBOHolder);
+    public EglProgramNV21(EglBufferObjectHolder eglBOHolder, int textureTarget) {
+        super(FRAGMENT_SHADER_RGB_TO_NV21, eglBOHolder, textureTarget);
         offsetLoc = GLES20.glGetUniformLocation(programId, "u_Offset");
     }
 
-    @Override
-    protected int getRealViewportWidth(int width) {
-        return width / 4;
-    }
-
-    @Override
-    protected int getRealViewportHeight(int height) {
-        return (int) (height * 1.5f);
-    }
-
     @Override
     protected void onDraw(int width, int height) {
         GLES20.glUniform1f(offsetLoc, 1.f / (float) width);
@@ -40,6 +30,7 @@ public class EglProgramNV21 extends EglProgramYUV {
             "layout(location = 0) out vec4 outColor;\n" +
             "uniform samplerExternalOES s_TextureMap;\n" +
             "uniform float u_Offset;\n" +
+            "uniform bool u_SkipLuma;\n" +
             "uniform vec3 COEF_Y;\n" +
             "uniform vec3 COEF_U;\n" +
             "uniform vec3 COEF_V;\n" +
@@ -48,6 +39,9 @@ public class EglProgramNV21 extends EglProgramYUV {
             "{\n" +
             "    vec2 texelOffset = vec2(u_Offset, 0.0);\n" +
             "    if(v_texCoord.y <= UV_DIVIDE_LINE) {\n" +
+            "        if(u_SkipLuma) {\n" +
+            "            discard;\n" +
+            "        }\n" +
             "        vec2 texCoord = vec2(v_texCoord.x, v_texCoord.y * 3.0 / 2.0);\n" +
             "        vec4 color0 = texture(s_TextureMap, texCoord);\n" +
             "        vec4 color1 = texture(s_TextureMap, texCoord + texelOffset);\n" +
@@ -6,8 +6,8 @@ public class EglProgramRGB565 extends EglProgram {
 
     private final int uWidth;
 
-    public EglProgramRGB565(EglBufferObjectHolder eglBOHolder) {
-        super(FRAGMENT_SHADER_RGB565, eglBOHolder);
+    public EglProgramRGB565(EglBufferObjectHolder eglBOHolder, int textureTarget) {
+        super(FRAGMENT_SHADER_RGB565, eglBOHolder, textureTarget);
         uWidth = GLES20.glGetUniformLocation(programId, "u_width");
     }
 
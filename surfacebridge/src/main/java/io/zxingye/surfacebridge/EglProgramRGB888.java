@@ -6,8 +6,8 @@ public class EglProgramRGB888 extends EglProgram {
 
     private final int uWidth;
 
-    public EglProgramRGB888(EglBufferObjectHolder eglBOHolder) {
-        super(FRAGMENT_SHADER_RGB888, eglBOHolder);
+    public EglProgramRGB888(EglBufferObjectHolder eglBOHolder, int textureTarget) {
+        super(FRAGMENT_SHADER_RGB888, eglBOHolder, textureTarget);
         uWidth = GLES20.glGetUniformLocation(programId, "u_width");
     }
 
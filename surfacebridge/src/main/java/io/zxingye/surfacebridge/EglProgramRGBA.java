@@ -2,8 +2,8 @@ package io.zxingye.surfacebridge;
 
 public class EglProgramRGBA extends EglProgram {
 
-    public EglProgramRGBA(EglBufferObjectHolder eglBOHolder) {
-        super(FRAGMENT_SHADER_RGBA, eglBOHolder);
+    public EglProgramRGBA(EglBufferObjectHolder eglBOHolder, int textureTarget) {
+        super(FRAGMENT_SHADER_RGBA, eglBOHolder, textureTarget);
     }
 
     @Override
@@ -2,8 +2,8 @@ package io.zxingye.surfacebridge;
 
 public class EglProgramRGBX extends EglProgram {
 
-    public EglProgramRGBX(EglBufferObjectHolder eglBOHolder) {
-        super(FRAGMENT_SHADER_RGBX, eglBOHolder);
+    public EglProgramRGBX(EglBufferObjectHolder eglBOHolder, int textureTarget) {
+        super(FRAGMENT_SHADER_RGBX, eglBOHolder, textureTarget);
     }
 
     @Override
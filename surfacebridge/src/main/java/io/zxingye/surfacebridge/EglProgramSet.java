@@ -0,0 +1,200 @@
+package io.zxingye.surfacebridge;
+
+import android.util.Log;
+
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 同一种输入纹理（OES纹理或中间纹理）对应的全部program，包括普通program、MRT program和计算着色器program。
+ * <p>
+ * program在某个格式第一次使用时才编译和链接，只用到少数格式时可以省去其余格式的编译时间。
+ * 创建失败的格式会被记录下来，之后直接返回null，不会每帧重试。
+ */
+public class EglProgramSet implements AutoCloseable {
+
+    private static final String TAG = "EglProgramSet";
+
+    private static final Set<FrameFormat> YUV420_FORMATS = EnumSet.of(
+            FrameFormat.YU12, FrameFormat.YV12, FrameFormat.NV12, FrameFormat.NV21);
+
+    private static final Map<FrameFormat, ProgramFactory> PROGRAM_FACTORIES = new HashMap<>();
+
+    static {
+        PROGRAM_FACTORIES.put(FrameFormat.RGBA_8888, EglProgramRGBA::new);
+        PROGRAM_FACTORIES.put(FrameFormat.RGBX_8888, EglProgramRGBX::new);
+        PROGRAM_FACTORIES.put(FrameFormat.BGRA_8888, EglProgramBGRA::new);
+        PROGRAM_FACTORIES.put(FrameFormat.BGRX_8888, EglProgramBGRX::new);
+        PROGRAM_FACTORIES.put(FrameFormat.RGB_888, EglProgramRGB888::new);
+        PROGRAM_FACTORIES.put(FrameFormat.RGB_565, EglProgramRGB565::new);
+        PROGRAM_FACTORIES.put(FrameFormat.YU12, EglProgramYU12::new);
+        PROGRAM_FACTORIES.put(FrameFormat.YV12, EglProgramYV12::new);
+        PROGRAM_FACTORIES.put(FrameFormat.NV12, EglProgramNV12::new);
+        PROGRAM_FACTORIES.put(FrameFormat.NV21, EglProgramNV21::new);
+        PROGRAM_FACTORIES.put(FrameFormat.I444, EglProgramI444::new);
+        PROGRAM_FACTORIES.put(FrameFormat.YUVY, EglProgramYUVY::new);
+        PROGRAM_FACTORIES.put(FrameFormat.YUYV, EglProgramYUYV::new);
+        PROGRAM_FACTORIES.put(FrameFormat.YVYU, EglProgramYVYU::new);
+        PROGRAM_FACTORIES.put(FrameFormat.UYVY, EglProgramUYVY::new);
+        PROGRAM_FACTORIES.put(FrameFormat.VYUY, EglProgramVYUY::new);
+    }
+
+    private final EglBufferObjectHolder eglBOHolder;
+    private final int textureTarget;
+    private final boolean supportCompute;
+    private final Map<FrameFormat, EglProgram> programMap = new HashMap<>();
+    private final Map<FrameFormat, EglProgram> mrtProgramMap = new HashMap<>();
+    private final Map<FrameFormat, EglComputeProgramYUV420> computeProgramMap = new HashMap<>();
+    private final Set<FrameFormat> failedFormats = EnumSet.noneOf(FrameFormat.class);
+    private final Set<FrameFormat> failedMrtFormats = EnumSet.noneOf(FrameFormat.class);
+    private final Set<FrameFormat> failedComputeFormats = EnumSet.noneOf(FrameFormat.class);
+    private EglYUVColorSpace yuvColorSpace;
+
+    /**
+     * @param textureTarget  输入纹理的类型，GL_TEXTURE_EXTERNAL_OES或GL_TEXTURE_2D
+     * @param supportCompute 是否支持计算着色器program，需要GL版本为3.1及以上
+     */
+    public EglProgramSet(EglBufferObjectHolder eglBOHolder, int textureTarget, boolean supportCompute) {
+        this.eglBOHolder = eglBOHolder;
+        this.textureTarget = textureTarget;
+        this.supportCompute = supportCompute;
+    }
+
+    @Override
+    public void close() {
+        EglTool.releaseEglProgram(programMap.values());
+        EglTool.releaseEglProgram(mrtProgramMap.values());
+        for (EglComputeProgramYUV420 program : computeProgramMap.values()) {
+            program.close();
+        }
+        programMap.clear();
+        mrtProgramMap.clear();
+        computeProgramMap.clear();
+    }
+
+    /**
+     * 删除formatsInUse以外的格式的program，之后再用到时会重新创建（设置了缓存目录时从磁盘缓存加载）
+     *
+     * @return 估算释放的内存，按program二进制的大小计算
+     */
+    public long trim(Set<FrameFormat> formatsInUse) {
+        long freedBytes = trimProgram(programMap, formatsInUse) + trimProgram(mrtProgramMap, formatsInUse);
+        Iterator<Map.Entry<FrameFormat, EglComputeProgramYUV420>> iterator = computeProgramMap.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<FrameFormat, EglComputeProgramYUV420> entry = iterator.next();
+            if (!formatsInUse.contains(entry.getKey())) {
+                freedBytes += EglTool.getProgramBinarySize(entry.getValue().getProgramId());
+                entry.getValue().close();
+                iterator.remove();
+            }
+        }
+        return freedBytes;
+    }
+
+    private static long trimProgram(Map<FrameFormat, EglProgram> map, Set<FrameFormat> formatsInUse) {
+        long freedBytes = 0;
+        Iterator<Map.Entry<FrameFormat, EglProgram>> iterator = map.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<FrameFormat, EglProgram> entry = iterator.next();
+            if (!formatsInUse.contains(entry.getKey())) {
+                freedBytes += EglTool.getProgramBinarySize(entry.getValue().getProgramId());
+                entry.getValue().close();
+                iterator.remove();
+            }
+        }
+        return freedBytes;
+    }
+
+    public boolean isSupport(FrameFormat format) {
+        return PROGRAM_FACTORIES.containsKey(format) && !failedFormats.contains(format);
+    }
+
+    public EglProgram getProgram(FrameFormat format) {
+        EglProgram program = programMap.get(format);
+        if (program != null || !isSupport(format)) {
+            return program;
+        }
+        try {
+            program = PROGRAM_FACTORIES.get(format).create(eglBOHolder, textureTarget);
+        } catch (Exception e) {
+            Log.w(TAG, "create program fail: format = " + format + ", " + e);
+            failedFormats.add(format);
+            return null;
+        }
+        applyYuvColorSpace(program);
+        programMap.put(format, program);
+        return program;
+    }
+
+    public EglProgram getMrtProgram(FrameFormat format) {
+        EglProgram program = mrtProgramMap.get(format);
+        if (program != null || !YUV420_FORMATS.contains(format) || failedMrtFormats.contains(format)) {
+            return program;
+        }
+        try {
+            program = new EglProgramYUV420MRT(eglBOHolder, format, textureTarget);
+        } catch (Exception e) {
+            Log.w(TAG, "create mrt program fail: format = " + format + ", " + e);
+            failedMrtFormats.add(format);
+            return null;
+        }
+        applyYuvColorSpace(program);
+        mrtProgramMap.put(format, program);
+        return program;
+    }
+
+    public EglComputeProgramYUV420 getComputeProgram(FrameFormat format) {
+        EglComputeProgramYUV420 program = computeProgramMap.get(format);
+        if (program != null || !supportCompute
+                || !YUV420_FORMATS.contains(format) || failedComputeFormats.contains(format)) {
+            return program;
+        }
+        try {
+            program = new EglComputeProgramYUV420(eglBOHolder, format, textureTarget);
+        } catch (Exception e) {
+            Log.w(TAG, "create compute program fail: format = " + format + ", " + e);
+            failedComputeFormats.add(format);
+            return null;
+        }
+        if (yuvColorSpace != null) {
+            program.setYuvColorSpace(yuvColorSpace);
+        }
+        computeProgramMap.put(format, program);
+        return program;
+    }
+
+    public void setYuvColorSpace(EglYUVColorSpace colorSpace) {
+        yuvColorSpace = colorSpace;
+        for (EglProgram program : programMap.values()) {
+            applyYuvColorSpace(program);
+        }
+        for (EglProgram program : mrtProgramMap.values()) {
+            applyYuvColorSpace(program);
+        }
+        for (EglComputeProgramYUV420 program : computeProgramMap.values()) {
+            program.setYuvColorSpace(colorSpace);
+        }
+    }
+
+    private void applyYuvColorSpace(EglProgram program) {
+        if (yuvColorSpace != null && program instanceof EglProgramYUV) {
+            ((EglProgramYUV) program).setYuvColorSpace(yuvColorSpace);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "supportFormat = " + PROGRAM_FACTORIES.keySet()
+                + ", createdFormat = " + programMap.keySet()
+                + ", createdMrtFormat = " + mrtProgramMap.keySet()
+                + ", createdComputeFormat = " + computeProgramMap.keySet()
+                + ", supportCompute = " + supportCompute;
+    }
+
+    private interface ProgramFactory {
+        EglProgram create(EglBufferObjectHolder eglBOHolder, int textureTarget);
+    }
+}
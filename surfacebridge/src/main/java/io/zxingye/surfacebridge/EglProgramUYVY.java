@@ -6,8 +6,8 @@ public class EglProgramUYVY extends EglProgramYUV {
 
     private final int offsetLoc;
 
-    public EglProgramUYVY(EglBufferObjectHolder eglBOHolder) {
-        super(FRAGMENT_SHADER_RGB_TO_UYVY, eglBOHolder);
+    public EglProgramUYVY(EglBufferObjectHolder eglBOHolder, int textureTarget) {
+        super(FRAGMENT_SHADER_RGB_TO_UYVY, eglBOHolder, textureTarget);
         offsetLoc = GLES20.glGetUniformLocation(programId, "u_Offset");
     }
 
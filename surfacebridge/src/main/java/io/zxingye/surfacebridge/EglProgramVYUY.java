@@ -6,8 +6,8 @@ public class EglProgramVYUY extends EglProgramYUV {
 
     private final int offsetLoc;
 
-    public EglProgramVYUY(EglBufferObjectHolder eglBOHolder) {
-        super(FRAGMENT_SHADER_RGB_TO_VYUY, eglBOHolder);
+    public EglProgramVYUY(EglBufferObjectHolder eglBOHolder, int textureTarget) {
+        super(FRAGMENT_SHADER_RGB_TO_VYUY, eglBOHolder, textureTarget);
         offsetLoc = GLES20.glGetUniformLocation(programId, "u_Offset");
     }
 
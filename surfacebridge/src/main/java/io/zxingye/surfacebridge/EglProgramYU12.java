@@ -2,27 +2,17 @@ package io.zxingye.surfacebridge;
 
 import android.opengl.GLES20;
 
-public class EglProgramYU12 extends EglProgramYUV {
+public class EglProgramYU12 extends EglProgramYUV420 {
 
     private final int offsetLoc;
     private final int imgSizeLoc;
 
-    public EglProgramYU12(EglBufferObjectHolder eglBOHolder) {
-        super(FRAGMENT_SHADER_RGB_TO_YU12, eglBOHolder);
+    public EglProgramYU12(EglBufferObjectHolder eglBOHolder, int textureTarget) {
+        super(FRAGMENT_SHADER_RGB_TO_YU12, eglBOHolder, textureTarget);
         offsetLoc = GLES20.glGetUniformLocation(programId, "u_Offset");
         imgSizeLoc = GLES20.glGetUniformLocation(programId, "u_ImgSize");
     }
 
-    @Override
-    protected int getRealViewportWidth(int width) {
-        return width / 4;
-    }
-
-    @Override
-    protected int getRealViewportHeight(int height) {
-        return (int) (height * 1.5f);
-    }
-
     @Override
     protected void onDraw(int width, int height) {
         GLES20.glUniform1f(offsetLoc, 1.f / (float) width);
@@ -44,6 +34,7 @@ public class EglProgramYU12 extends EglProgramYUV {
             "uniform samplerExternalOES s_TextureMap;\n" +
             "uniform float u_Offset;\n" +
             "uniform vec2 u_ImgSize;\n" +
+            "uniform bool u_SkipLuma;\n" +
             "uniform vec3 COEF_Y;\n" +
             "uniform vec3 COEF_U;\n" +
             "uniform vec3 COEF_V;\n" +
@@ -53,6 +44,9 @@ public class EglProgramYU12 extends EglProgramYUV {
             "{\n" +
             "    vec2 texelOffset = vec2(u_Offset, 0.0);\n" +
             "    if(v_texCoord.y <= U_DIVIDE_LINE) {\n" +
+            "        if(u_SkipLuma) {\n" +
+            "            discard;\n" +
+            "        }\n" +
             "        vec2 texCoord = vec2(v_texCoord.x, v_texCoord.y * 3.0 / 2.0);\n" +
             "        vec4 color0 = texture(s_TextureMap, texCoord);\n" +
             "        vec4 color1 = texture(s_TextureMap, texCoord + texelOffset);\n" +
@@ -8,8 +8,8 @@ public abstract class EglProgramYUV extends EglProgram {
     private final int coefULoc;
     private final int coefVLoc;
 
-    protected EglProgramYUV(String pixelShaderStr, EglBufferObjectHolder eglBOHolder) {
-        super(pixelShaderStr, eglBOHolder);
+    protected EglProgramYUV(String pixelShaderStr, EglBufferObjectHolder eglBOHolder, int textureTarget) {
+        super(pixelShaderStr, eglBOHolder, textureTarget);
         coefYLoc = GLES20.glGetUniformLocation(programId, "COEF_Y");
         coefULoc = GLES20.glGetUniformLocation(programId, "COEF_U");
         coefVLoc = GLES20.glGetUniformLocation(programId, "COEF_V");
@@ -17,6 +17,17 @@ public abstract class EglProgramYUV extends EglProgram {
     }
 
     public void setYuvColorSpace(EglYUVColorSpace colorSpace) {
+        applyYuvColorSpace(programId, coefYLoc, coefULoc, coefVLoc, colorSpace);
+    }
+
+    /**
+     * 设置program中COEF_Y、COEF_U、COEF_V三个uniform，计算着色器也共用这组系数
+     */
+    static void applyYuvColorSpace(int programId,
+                                   int coefYLoc,
+                                   int coefULoc,
+                                   int coefVLoc,
+                                   EglYUVColorSpace colorSpace) {
         EglTool.setShaderProgram(programId);
         switch (colorSpace) {
             case BT_601:
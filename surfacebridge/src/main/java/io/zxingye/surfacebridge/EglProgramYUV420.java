@@ -0,0 +1,42 @@
+package io.zxingye.surfacebridge;
+
+import android.opengl.GLES20;
+
+/**
+ * 单个附件打包输出的YUV420格式（NV12、NV21、YU12、YV12）的基类。
+ * 这几种格式的绘制尺寸相同，并且上2/3都是完全相同的Y平面，只有色度部分的排列不同，
+ * 所以同一组输出可以只计算一次Y平面，其他格式通过{@link #setSkipLuma(boolean)}只绘制色度部分。
+ */
+public abstract class EglProgramYUV420 extends EglProgramYUV {
+
+    private final int skipLumaLoc;
+    private boolean isSkipLuma;
+
+    protected EglProgramYUV420(String pixelShaderStr, EglBufferObjectHolder eglBOHolder, int textureTarget) {
+        super(pixelShaderStr, eglBOHolder, textureTarget);
+        skipLumaLoc = GLES20.glGetUniformLocation(programId, "u_SkipLuma");
+    }
+
+    /**
+     * @param skipLuma 为true时Y平面的片元直接discard，保留目标中已有的Y平面
+     */
+    public void setSkipLuma(boolean skipLuma) {
+        isSkipLuma = skipLuma;
+    }
+
+    @Override
+    protected int getRealViewportWidth(int width) {
+        return width / 4;
+    }
+
+    @Override
+    protected int getRealViewportHeight(int height) {
+        return (int) (height * 1.5f);
+    }
+
+    @Override
+    protected void onDraw(int width, int height) {
+        GLES20.glUniform1i(skipLumaLoc, isSkipLuma ? 1 : 0);
+        super.onDraw(width, height);
+    }
+}
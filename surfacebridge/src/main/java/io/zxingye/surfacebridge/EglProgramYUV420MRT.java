@@ -0,0 +1,169 @@
+package io.zxingye.surfacebridge;
+
+import android.opengl.GLES20;
+import android.util.Size;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 基于MRT（多渲染目标）的YUV420转换，一次绘制同时输出Y、UV平面，着色器中没有任何分支。
+ * 每个片元对应原图中 4x2 的像素块，只采样8次，色度直接由这8个采样求平均得到：
+ * <p>
+ * 附件0：块的第一行4个Y；附件1：块的第二行4个Y；附件2：块的2组UV，按格式排列。
+ * <p>
+ * 三个附件大小都是 width / 4 x height / 2，由{@link EglPixelBufferFrameReader}读回后组装为紧密排列的YUV420数据。
+ */
+public class EglProgramYUV420MRT extends EglProgramYUV {
+
+    private static final int ATTACHMENT_COUNT = 3;
+
+    // 着色器中按(u0, v0, u1, v1)计算，再通过列主序的置换矩阵调整为各格式的排列
+    private static final float[] CHROMA_UV_UV = {
+            1f, 0f, 0f, 0f,
+            0f, 1f, 0f, 0f,
+            0f, 0f, 1f, 0f,
+            0f, 0f, 0f, 1f,
+    };
+
+    private static final float[] CHROMA_VU_VU = {
+            0f, 1f, 0f, 0f,
+            1f, 0f, 0f, 0f,
+            0f, 0f, 0f, 1f,
+            0f, 0f, 1f, 0f,
+    };
+
+    private static final float[] CHROMA_UU_VV = {
+            1f, 0f, 0f, 0f,
+            0f, 0f, 1f, 0f,
+            0f, 1f, 0f, 0f,
+            0f, 0f, 0f, 1f,
+    };
+
+    private final FrameFormat format;
+
+    public EglProgramYUV420MRT(EglBufferObjectHolder eglBOHolder, FrameFormat format, int textureTarget) {
+        super(FRAGMENT_SHADER_RGB_TO_YUV420_MRT, eglBOHolder, textureTarget);
+        this.format = format;
+        float[] chromaMatrix;
+        switch (format) {
+            case NV12:
+                chromaMatrix = CHROMA_UV_UV;
+                break;
+            case NV21:
+                chromaMatrix = CHROMA_VU_VU;
+                break;
+            case YU12:
+            case YV12:
+                chromaMatrix = CHROMA_UU_VV;
+                break;
+            default:
+                close();
+                throw new IllegalArgumentException("format is not supported: " + format);
+        }
+        EglTool.setShaderProgram(programId);
+        GLES20.glUniformMatrix4fv(GLES20.glGetUniformLocation(programId, "u_ChromaMatrix"),
+                1, false, chromaMatrix, 0);
+    }
+
+    @Override
+    protected int getRealViewportWidth(int width) {
+        return width / 4;
+    }
+
+    @Override
+    protected int getRealViewportHeight(int height) {
+        return height / 2;
+    }
+
+    @Override
+    public FrameFormat getFrameFormat() {
+        return format;
+    }
+
+    @Override
+    public EglFrameReader createEglFrameReader(Size size, FrameReaderConfig config) {
+        int width = getRealViewportWidth(size.getWidth());
+        int height = getRealViewportHeight(size.getHeight());
+        return new EglPixelBufferFrameReader(
+                width,
+                height,
+                config.getMaxImages(),
+                ATTACHMENT_COUNT,
+                (src, dst) -> pack(src, dst, width * 4, height),
+                format,
+                size,
+                config.isDirectBuffer());
+    }
+
+    /**
+     * 把三个附件的数据组装为紧密排列的YUV420
+     *
+     * @param rowLength 每个附件一行的字节数，等于原图的宽
+     * @param rowCount  每个附件的行数，等于原图高的一半
+     */
+    private void pack(ByteBuffer src, ByteBuffer dst, int rowLength, int rowCount) {
+        int attachmentSize = rowLength * rowCount;
+        int maxLimit = src.limit();
+        for (int row = 0; row < rowCount; row++) {
+            int offset = row * rowLength;
+            src.limit(offset + rowLength).position(offset);
+            dst.put(src);
+            src.limit(attachmentSize + offset + rowLength).position(attachmentSize + offset);
+            dst.put(src);
+        }
+        int chromaStart = attachmentSize * 2;
+        if (format == FrameFormat.NV12 || format == FrameFormat.NV21) {
+            src.limit(maxLimit).position(chromaStart);
+            dst.put(src);
+            return;
+        }
+        // 附件2的每个像素为(u0, u1, v0, v1)，拆分为U、V两个平面
+        int firstPlane = dst.position();
+        int secondPlane = firstPlane + attachmentSize / 2;
+        boolean isUFirst = format == FrameFormat.YU12;
+        for (int i = 0; i < attachmentSize; i += 4) {
+            short uu = src.getShort(chromaStart + i);
+            short vv = src.getShort(chromaStart + i + 2);
+            int index = i / 2;
+            dst.putShort(firstPlane + index, isUFirst ? uu : vv);
+            dst.putShort(secondPlane + index, isUFirst ? vv : uu);
+        }
+        dst.position(secondPlane + attachmentSize / 2);
+        src.limit(maxLimit);
+    }
+
+    private static final String FRAGMENT_SHADER_RGB_TO_YUV420_MRT = "" +
+            "#version 300 es\n" +
+            "#extension GL_OES_EGL_image_external_essl3 : require\n" +
+            "precision highp float;\n" +
+            "in vec2 v_texCoord;\n" +
+            "layout(location = 0) out vec4 outY0;\n" +
+            "layout(location = 1) out vec4 outY1;\n" +
+            "layout(location = 2) out vec4 outUV;\n" +
+            "uniform samplerExternalOES s_TextureMap;\n" +
+            "uniform mat4 u_ChromaMatrix;\n" +
+            "uniform vec3 COEF_Y;\n" +
+            "uniform vec3 COEF_U;\n" +
+            "uniform vec3 COEF_V;\n" +
+            "void main()\n" +
+            "{\n" +
+            "    // 片元是4x2的像素块，通过导数得到单个像素在纹理坐标中的步长，兼容任意旋转的变换\n" +
+            "    vec2 stepX = dFdx(v_texCoord) / 4.0;\n" +
+            "    vec2 stepY = dFdy(v_texCoord) / 2.0;\n" +
+            "    vec2 origin = v_texCoord - stepX * 1.5 - stepY * 0.5;\n" +
+            "    vec3 c00 = texture(s_TextureMap, origin).rgb;\n" +
+            "    vec3 c10 = texture(s_TextureMap, origin + stepX).rgb;\n" +
+            "    vec3 c20 = texture(s_TextureMap, origin + stepX * 2.0).rgb;\n" +
+            "    vec3 c30 = texture(s_TextureMap, origin + stepX * 3.0).rgb;\n" +
+            "    vec3 c01 = texture(s_TextureMap, origin + stepY).rgb;\n" +
+            "    vec3 c11 = texture(s_TextureMap, origin + stepY + stepX).rgb;\n" +
+            "    vec3 c21 = texture(s_TextureMap, origin + stepY + stepX * 2.0).rgb;\n" +
+            "    vec3 c31 = texture(s_TextureMap, origin + stepY + stepX * 3.0).rgb;\n" +
+            "    outY0 = vec4(dot(c00, COEF_Y), dot(c10, COEF_Y), dot(c20, COEF_Y), dot(c30, COEF_Y));\n" +
+            "    outY1 = vec4(dot(c01, COEF_Y), dot(c11, COEF_Y), dot(c21, COEF_Y), dot(c31, COEF_Y));\n" +
+            "    vec3 left = (c00 + c10 + c01 + c11) * 0.25;\n" +
+            "    vec3 right = (c20 + c30 + c21 + c31) * 0.25;\n" +
+            "    vec4 uvuv = vec4(dot(left, COEF_U), dot(left, COEF_V), dot(right, COEF_U), dot(right, COEF_V)) + 0.5;\n" +
+            "    outUV = u_ChromaMatrix * uvuv;\n" +
+            "}";
+}
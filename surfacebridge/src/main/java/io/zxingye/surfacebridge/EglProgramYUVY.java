@@ -6,8 +6,8 @@ public class EglProgramYUVY extends EglProgramYUV {
 
     private final int offsetLoc;
 
-    public EglProgramYUVY(EglBufferObjectHolder eglBOHolder) {
-        super(FRAGMENT_SHADER_RGB_TO_YUVY, eglBOHolder);
+    public EglProgramYUVY(EglBufferObjectHolder eglBOHolder, int textureTarget) {
+        super(FRAGMENT_SHADER_RGB_TO_YUVY, eglBOHolder, textureTarget);
         offsetLoc = GLES20.glGetUniformLocation(programId, "u_Offset");
     }
 
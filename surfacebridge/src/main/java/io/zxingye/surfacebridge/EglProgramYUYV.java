@@ -6,8 +6,8 @@ public class EglProgramYUYV extends EglProgramYUV {
 
     private final int offsetLoc;
 
-    public EglProgramYUYV(EglBufferObjectHolder eglBOHolder) {
-        super(FRAGMENT_SHADER_RGB_TO_YUYV, eglBOHolder);
+    public EglProgramYUYV(EglBufferObjectHolder eglBOHolder, int textureTarget) {
+        super(FRAGMENT_SHADER_RGB_TO_YUYV, eglBOHolder, textureTarget);
         offsetLoc = GLES20.glGetUniformLocation(programId, "u_Offset");
     }
 
@@ -6,8 +6,8 @@ public class EglProgramYVYU extends EglProgramYUV {
 
     private final int offsetLoc;
 
-    public EglProgramYVYU(EglBufferObjectHolder eglBOHolder) {
-        super(FRAGMENT_SHADER_RGB_TO_YVYU, eglBOHolder);
+    public EglProgramYVYU(EglBufferObjectHolder eglBOHolder, int textureTarget) {
+        super(FRAGMENT_SHADER_RGB_TO_YVYU, eglBOHolder, textureTarget);
         offsetLoc = GLES20.glGetUniformLocation(programId, "u_Offset");
     }
 
@@ -0,0 +1,86 @@
+package io.zxingye.surfacebridge;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.opengl.GLException;
+
+import java.nio.FloatBuffer;
+
+/**
+ * 流式更新的uniform buffer，用于每帧会多次修改的数据。
+ * <p>
+ * buffer被分成多个slot循环写入，每次更新写入下一个slot，再通过glBindBufferRange绑定，
+ * 之前的绘制还在使用的区域不会被覆盖，驱动不需要等待GPU或者做影子拷贝。
+ * 写满一圈后先orphan整个buffer（glBufferData(null)），驱动会分配新的存储，旧的存储在GPU用完后再释放。
+ */
+public class EglStreamBuffer implements AutoCloseable {
+
+    private static final int FLOAT_SIZE = 4;
+
+    private final int slotCount;
+    private final int slotStride;
+    private final int dataSize;
+    private final FloatBuffer stagingBuffer;
+    private int bufferId;
+    private int nextSlot;
+
+    /**
+     * @param floatCount 每次更新的数据长度
+     * @param slotCount  slot的数量，至少要能容纳一帧内的所有更新
+     */
+    public EglStreamBuffer(int floatCount, int slotCount, float[] defaultData) {
+        if (floatCount <= 0 || slotCount <= 0) {
+            throw new GLException(-1, "floatCount <= 0 || slotCount <= 0");
+        }
+        this.slotCount = slotCount;
+        this.dataSize = floatCount * FLOAT_SIZE;
+        int[] alignment = new int[]{0};
+        GLES20.glGetIntegerv(GLES30.GL_UNIFORM_BUFFER_OFFSET_ALIGNMENT, alignment, 0);
+        int align = Math.max(FLOAT_SIZE, alignment[0]);
+        this.slotStride = (dataSize + align - 1) / align * align;
+        this.stagingBuffer = EglTool.createFloatBuffer(floatCount);
+        stagingBuffer.put(defaultData).rewind();
+        bufferId = EglTool.createUbo(slotStride * slotCount, GLES20.GL_STREAM_DRAW);
+        // 初始时绑定第一个slot，保证没有更新过也能读到默认数据
+        GLES20.glBindBuffer(GLES30.GL_UNIFORM_BUFFER, bufferId);
+        GLES20.glBufferSubData(GLES30.GL_UNIFORM_BUFFER, 0, dataSize, stagingBuffer);
+        GLES20.glBindBuffer(GLES30.GL_UNIFORM_BUFFER, GLES20.GL_NONE);
+        GLES30.glBindBufferRange(GLES30.GL_UNIFORM_BUFFER, bufferId, bufferId, 0, dataSize);
+        EglTool.checkGlError("glBindBufferRange");
+        nextSlot = 1 % slotCount;
+    }
+
+    /**
+     * 把data写入下一个slot，并绑定到uniform block的binding point（即bufferId）
+     */
+    public void update(float[] data) {
+        if (nextSlot == 0) {
+            // 一圈用完，orphan旧的存储，而不是等待GPU读完
+            GLES20.glBindBuffer(GLES30.GL_UNIFORM_BUFFER, bufferId);
+            GLES20.glBufferData(GLES30.GL_UNIFORM_BUFFER, slotStride * slotCount, null, GLES20.GL_STREAM_DRAW);
+        } else {
+            GLES20.glBindBuffer(GLES30.GL_UNIFORM_BUFFER, bufferId);
+        }
+        int offset = nextSlot * slotStride;
+        stagingBuffer.clear();
+        stagingBuffer.put(data).rewind();
+        GLES20.glBufferSubData(GLES30.GL_UNIFORM_BUFFER, offset, dataSize, stagingBuffer);
+        GLES20.glBindBuffer(GLES30.GL_UNIFORM_BUFFER, GLES20.GL_NONE);
+        GLES30.glBindBufferRange(GLES30.GL_UNIFORM_BUFFER, bufferId, bufferId, offset, dataSize);
+        EglTool.checkFrameGlError("glBindBufferRange");
+        nextSlot = (nextSlot + 1) % slotCount;
+    }
+
+    /**
+     * @return buffer的id，同时也是uniform block的binding point
+     */
+    public int getBufferId() {
+        return bufferId;
+    }
+
+    @Override
+    public void close() {
+        EglTool.deleteBo(bufferId);
+        bufferId = 0;
+    }
+}
@@ -36,6 +36,21 @@ public final class EglTool {
 
     private static final int FLOAT_SIZE = 4;
 
+    private static volatile boolean isDebugMode = false;
+
+    /**
+     * 调试模式下每帧的GL调用都会检查glGetError，出错时立即抛出异常；
+     * 非调试模式下每帧的检查会被跳过，只由{@link #pollGlError(String)}按帧采样检查，避免glGetError导致的CPU/GPU同步。
+     * 初始化、创建资源时的检查不受影响。
+     */
+    public static void setDebugMode(boolean debugMode) {
+        isDebugMode = debugMode;
+    }
+
+    public static boolean isDebugMode() {
+        return isDebugMode;
+    }
+
 
     public static EGLConfig createConfig(EGLDisplay display) {
         int[] attributesList = new int[]{
@@ -129,6 +144,33 @@ public final class EglTool {
         }
     }
 
+    /**
+     * 每帧都会执行的GL调用使用的检查，只在调试模式下检查
+     */
+    public static void checkFrameGlError(String op) {
+        if (isDebugMode) {
+            checkGlError(op, false);
+        }
+    }
+
+    /**
+     * 取出并打印所有累积的GL错误，不抛出异常
+     *
+     * @return 没有错误时返回true
+     */
+    public static boolean pollGlError(String op) {
+        int error = GLES20.glGetError();
+        if (error == GLES20.GL_NO_ERROR) {
+            return true;
+        }
+        // 每种错误只会记录一次，最多取几次就能清空
+        for (int i = 0; i < 8 && error != GLES20.GL_NO_ERROR; i++) {
+            Log.w(TAG, op + ": glError 0x" + Integer.toHexString(error));
+            error = GLES20.glGetError();
+        }
+        return false;
+    }
+
     public static void makeCurrent(EGLDisplay display, EGLContext context, EGLSurface surface) {
         if (!EGL14.eglMakeCurrent(display, surface, surface, context)) {
             throw new GLException(-1, "makeCurrent fail");
@@ -141,19 +183,19 @@ public final class EglTool {
 
     public static void setViewportSize(int x, int y, int width, int height) {
         GLES20.glViewport(0, 0, width, height);
-        checkGlError("glViewport");
+        checkFrameGlError("glViewport");
     }
 
     public static void setShaderProgram(int programId) {
         GLES20.glUseProgram(programId);
-        EglTool.checkGlError("glUseProgram");
+        EglTool.checkFrameGlError("glUseProgram");
     }
 
     public static void drawArraysByVao(int vaoId, int drawMode, int vertexCount) {
         GLES30.glBindVertexArray(vaoId);
-        EglTool.checkGlError("glBindVertexArray");
+        EglTool.checkFrameGlError("glBindVertexArray");
         GLES20.glDrawArrays(drawMode, 0, vertexCount);
-        EglTool.checkGlError("glDrawArrays");
+        EglTool.checkFrameGlError("glDrawArrays");
         GLES30.glBindVertexArray(0);
     }
 
@@ -183,10 +225,104 @@ public final class EglTool {
         }
     }
 
+    public static int createTexture2D(int width, int height) {
+        return createTexture2D(width, height, 1);
+    }
+
+    /**
+     * @param levelCount mipmap的层数，大于1时需要调用glGenerateMipmap生成各层的数据
+     */
+    public static int createTexture2D(int width, int height, int levelCount) {
+        final int[] texId = new int[1];
+        GLES20.glGenTextures(1, texId, 0);
+        if (texId[0] <= 0) {
+            throw new GLException(-1, "createTexture2D fail: texId = " + texId[0]);
+        }
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texId[0]);
+        GLES30.glTexStorage2D(GLES20.GL_TEXTURE_2D, levelCount, GLES30.GL_RGBA8, width, height);
+        GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+        try {
+            checkGlError("glTexStorage2D");
+        } catch (Exception e) {
+            deleteTexture(texId[0]);
+            throw e;
+        }
+        return texId[0];
+    }
+
+    /**
+     * @return 从length缩小到不小于targetLength时，最多可以下降的mipmap层级
+     */
+    public static int getMipmapLevel(int length, int targetLength) {
+        if (targetLength <= 0 || length <= targetLength) {
+            return 0;
+        }
+        return 31 - Integer.numberOfLeadingZeros(length / targetLength);
+    }
+
+    public static void deleteTexture(int texId) {
+        if (texId > 0) {
+            GLES20.glDeleteTextures(1, new int[]{texId}, 0);
+        }
+    }
+
+    public static int createFramebuffer(int... texIds) {
+        int[] fboId = new int[1];
+        GLES20.glGenFramebuffers(1, fboId, 0);
+        if (fboId[0] <= 0) {
+            throw new GLException(-1, "createFramebuffer fail: fboId = " + fboId[0]);
+        }
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, fboId[0]);
+        int[] drawBuffers = new int[texIds.length];
+        for (int i = 0; i < texIds.length; i++) {
+            drawBuffers[i] = GLES30.GL_COLOR_ATTACHMENT0 + i;
+            GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, drawBuffers[i],
+                    GLES20.GL_TEXTURE_2D, texIds[i], 0);
+        }
+        if (texIds.length > 1) {
+            GLES30.glDrawBuffers(drawBuffers.length, drawBuffers, 0);
+        }
+        int status = GLES20.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        if (status != GLES20.GL_FRAMEBUFFER_COMPLETE) {
+            deleteFramebuffer(fboId[0]);
+            throw new GLException(-1, "createFramebuffer fail: status = 0x" + Integer.toHexString(status));
+        }
+        return fboId[0];
+    }
+
+    public static void deleteFramebuffer(int fboId) {
+        if (fboId > 0) {
+            GLES20.glDeleteFramebuffers(1, new int[]{fboId}, 0);
+        }
+    }
+
+    public static int createPixelPackBuffer(int byteSize) {
+        int[] pboId = new int[1];
+        GLES20.glGenBuffers(1, pboId, 0);
+        if (pboId[0] <= 0) {
+            throw new GLException(-1, "createPixelPackBuffer fail: glGenBuffers = " + pboId[0]);
+        }
+        GLES20.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, pboId[0]);
+        GLES30.glBufferData(GLES30.GL_PIXEL_PACK_BUFFER, byteSize, null, GLES30.GL_STREAM_READ);
+        GLES20.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, GLES20.GL_NONE);
+        try {
+            checkGlError("glBufferData");
+        } catch (Exception e) {
+            deleteBo(pboId[0]);
+            throw e;
+        }
+        return pboId[0];
+    }
+
     public static void bindOESTexture(int texId, int texType, int texPosition) {
         GLES20.glActiveTexture(texPosition);
         GLES20.glBindTexture(texType, texId);
-        checkGlError("glBindTexture");
+        checkFrameGlError("glBindTexture");
     }
 
     public static void clearColor(int color, int mask) {
@@ -199,15 +335,20 @@ public final class EglTool {
     }
 
     public static int getSurfaceWidth(EGLDisplay display, EGLSurface surface) {
-        int[] result = new int[]{0};
-        EGL14.eglQuerySurface(display, surface, EGL14.EGL_WIDTH, result, 0);
-        return result[0];
+        return querySurface(display, surface, EGL14.EGL_WIDTH, new int[1]);
     }
 
 
     public static int getSurfaceHeight(EGLDisplay display, EGLSurface surface) {
-        int[] result = new int[]{0};
-        EGL14.eglQuerySurface(display, surface, EGL14.EGL_HEIGHT, result, 0);
+        return querySurface(display, surface, EGL14.EGL_HEIGHT, new int[1]);
+    }
+
+    /**
+     * @param result 调用方复用的数组，长度至少为1，避免每帧分配
+     */
+    public static int querySurface(EGLDisplay display, EGLSurface surface, int attribute, int[] result) {
+        result[0] = 0;
+        EGL14.eglQuerySurface(display, surface, attribute, result, 0);
         return result[0];
     }
 
@@ -232,16 +373,29 @@ public final class EglTool {
     }
 
     public static boolean getRealOESTexSize(int texId, float[] texMatrix, int[] size) {
-        return getRealTexSize(texId, GLES11Ext.GL_TEXTURE_EXTERNAL_OES, texMatrix, size);
+        return getRealTexSize(texId, GLES11Ext.GL_TEXTURE_EXTERNAL_OES, texMatrix, size, new float[8]);
+    }
+
+    public static boolean getRealOESTexSize(int texId, float[] texMatrix, int[] size, float[] vectorCache) {
+        return getRealTexSize(texId, GLES11Ext.GL_TEXTURE_EXTERNAL_OES, texMatrix, size, vectorCache);
     }
 
     public static boolean getRealTexSize(int texId, int texType, float[] texMatrix, int[] size) {
+        return getRealTexSize(texId, texType, texMatrix, size, new float[8]);
+    }
+
+    /**
+     * @param vectorCache 调用方复用的数组，长度至少为8，避免每帧分配
+     */
+    public static boolean getRealTexSize(int texId, int texType, float[] texMatrix, int[] size, float[] vectorCache) {
         try {
             GLES20.glBindTexture(texType, texId);
             GLES31.glGetTexLevelParameteriv(texType, 0, GLES31.GL_TEXTURE_WIDTH, size, 0);
             GLES31.glGetTexLevelParameteriv(texType, 0, GLES31.GL_TEXTURE_HEIGHT, size, 1);
-            checkGlError("glGetTexLevelParameteriv", false);
+            // 和其他每帧的GL调用一样只在调试模式下检查，非调试模式下的错误由绘制时的采样检查取出并打印
+            checkFrameGlError("glGetTexLevelParameteriv");
         } catch (Exception e) {
+            Log.w(TAG, "getRealTexSize fail: " + e);
             return false;
         }
         if (size[0] >= Short.MAX_VALUE || size[1] >= Short.MAX_VALUE) {
@@ -251,11 +405,13 @@ public final class EglTool {
             return false;
         }
 
-        float[] vector = new float[]{size[0], size[1], 0, 1};
-        float[] realVector = new float[4];
-        Matrix.multiplyMV(realVector, 0, texMatrix, 0, vector, 0);
-        size[0] = (int) (realVector[0] > 0 ? (realVector[0]) : (Math.abs(realVector[0]) + 1));
-        size[1] = (int) (realVector[1] > 0 ? (realVector[1]) : (Math.abs(realVector[1]) + 1));
+        vectorCache[0] = size[0];
+        vectorCache[1] = size[1];
+        vectorCache[2] = 0;
+        vectorCache[3] = 1;
+        Matrix.multiplyMV(vectorCache, 4, texMatrix, 0, vectorCache, 0);
+        size[0] = (int) (vectorCache[4] > 0 ? (vectorCache[4]) : (Math.abs(vectorCache[4]) + 1));
+        size[1] = (int) (vectorCache[5] > 0 ? (vectorCache[5]) : (Math.abs(vectorCache[5]) + 1));
         return true;
     }
 
@@ -281,7 +437,14 @@ public final class EglTool {
         return shaderId;
     }
 
+    /**
+     * 设置了缓存目录时优先从{@link EglProgramBinaryCache}加载，编译链接成功后写入缓存
+     */
     public static int createProgram(String vertexShaderStr, String pixelShaderStr) {
+        int cachedProgram = EglProgramBinaryCache.load(vertexShaderStr, pixelShaderStr);
+        if (cachedProgram > 0) {
+            return cachedProgram;
+        }
         int vertexShader = loadShader(GLES20.GL_VERTEX_SHADER, vertexShaderStr);
         if (vertexShader <= 0) {
             throw new GLException(-1, "createProgram fail: vertexShader = " + vertexShader);
@@ -300,6 +463,9 @@ public final class EglTool {
             GLES20.glAttachShader(shaderId, pixelShader);
             EglTool.checkGlError("glAttachShader");
 
+            if (EglProgramBinaryCache.isEnabled()) {
+                GLES30.glProgramParameteri(shaderId, GLES30.GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GLES20.GL_TRUE);
+            }
             GLES20.glLinkProgram(shaderId);
             int[] linkStatus = new int[1];
             GLES20.glGetProgramiv(shaderId, GLES20.GL_LINK_STATUS, linkStatus, 0);
@@ -314,9 +480,78 @@ public final class EglTool {
             GLES20.glDeleteShader(pixelShader);
             GLES20.glDeleteShader(vertexShader);
         }
+        EglProgramBinaryCache.save(shaderId, vertexShaderStr, pixelShaderStr);
         return shaderId;
     }
 
+    public static int createComputeProgram(String computeShaderStr) {
+        int cachedProgram = EglProgramBinaryCache.load(computeShaderStr);
+        if (cachedProgram > 0) {
+            return cachedProgram;
+        }
+        int computeShader = loadShader(GLES31.GL_COMPUTE_SHADER, computeShaderStr);
+        int shaderId = GLES20.glCreateProgram();
+        if (shaderId <= 0) {
+            GLES20.glDeleteShader(computeShader);
+            throw new GLException(-1, "createComputeProgram fail: shaderId = " + shaderId);
+        }
+        try {
+            GLES20.glAttachShader(shaderId, computeShader);
+            EglTool.checkGlError("glAttachShader");
+            if (EglProgramBinaryCache.isEnabled()) {
+                GLES30.glProgramParameteri(shaderId, GLES30.GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GLES20.GL_TRUE);
+            }
+            GLES20.glLinkProgram(shaderId);
+            int[] linkStatus = new int[1];
+            GLES20.glGetProgramiv(shaderId, GLES20.GL_LINK_STATUS, linkStatus, 0);
+            if (linkStatus[0] != GLES20.GL_TRUE) {
+                throw new GLException(-1, "createComputeProgram fail :link status = " + linkStatus[0]
+                        + ", log = " + GLES20.glGetProgramInfoLog(shaderId));
+            }
+        } catch (Exception e) {
+            GLES20.glDeleteProgram(shaderId);
+            throw e;
+        } finally {
+            GLES20.glDeleteShader(computeShader);
+        }
+        EglProgramBinaryCache.save(shaderId, computeShaderStr);
+        return shaderId;
+    }
+
+    /**
+     * @return 当前context的GL版本，主版本号 * 10 + 次版本号，例如3.1返回31
+     */
+    public static int getGlVersion() {
+        int[] version = new int[2];
+        GLES30.glGetIntegerv(GLES30.GL_MAJOR_VERSION, version, 0);
+        GLES30.glGetIntegerv(GLES30.GL_MINOR_VERSION, version, 1);
+        if (GLES20.glGetError() != GLES20.GL_NO_ERROR) {
+            return 20;
+        }
+        return version[0] * 10 + version[1];
+    }
+
+    /**
+     * 把采样OES纹理的着色器转换为采样GL_TEXTURE_2D的版本，用于从中间纹理读取
+     */
+    public static String toTexture2DShader(String shaderStr) {
+        return shaderStr
+                .replace("#extension GL_OES_EGL_image_external_essl3 : require\n", "")
+                .replace("samplerExternalOES", "sampler2D");
+    }
+
+    /**
+     * @return program二进制的大小，用于估算program占用的内存，不支持时返回0
+     */
+    public static int getProgramBinarySize(int programId) {
+        if (programId <= 0) {
+            return 0;
+        }
+        int[] length = new int[1];
+        GLES20.glGetProgramiv(programId, GLES30.GL_PROGRAM_BINARY_LENGTH, length, 0);
+        return EglTool.pollGlError("getProgramBinarySize") ? length[0] : 0;
+    }
+
     public static void deleteProgram(int programId) {
         if (programId > 0) {
             GLES20.glDeleteProgram(programId);
@@ -345,6 +580,22 @@ public final class EglTool {
         return vboId[0];
     }
 
+    /**
+     * 创建一个没有初始数据的UBO，binding point和UBO的id相同，但是不绑定，由调用方通过glBindBufferRange绑定
+     */
+    public static int createUbo(int byteSize, int usage) {
+        int[] uboId = new int[1];
+        GLES20.glGenBuffers(1, uboId, 0);
+        if (uboId[0] <= 0) {
+            throw new GLException(-1, "createUBO fail: glGenBuffers = " + uboId[0]);
+        }
+        GLES20.glBindBuffer(GLES30.GL_UNIFORM_BUFFER, uboId[0]);
+        GLES30.glBufferData(GLES30.GL_UNIFORM_BUFFER, byteSize, null, usage);
+        EglTool.checkGlError("glBufferData");
+        GLES20.glBindBuffer(GLES30.GL_UNIFORM_BUFFER, GLES20.GL_NONE);
+        return uboId[0];
+    }
+
     public static int createUbo(FloatBuffer defaultData, int usage) {
         int[] uboId = new int[1];
         GLES20.glGenBuffers(1, uboId, 0);
@@ -366,7 +617,7 @@ public final class EglTool {
         buffer.rewind();
         GLES20.glBindBuffer(bufferType, bufferId);
         GLES20.glBufferSubData(bufferType, 0, sizeof(buffer), buffer);
-        EglTool.checkGlError("glBufferSubData");
+        EglTool.checkFrameGlError("glBufferSubData");
     }
 
     public static void deleteBo(int bufferId) {
@@ -377,7 +628,7 @@ public final class EglTool {
 
     public static void deleteVao(int vertexArrayId) {
         if (vertexArrayId > 0) {
-            GLES30.glDeleteVertexArrays(1, new int[vertexArrayId], 0);
+            GLES30.glDeleteVertexArrays(1, new int[]{vertexArrayId}, 0);
         }
     }
 
@@ -418,13 +669,37 @@ public final class EglTool {
     }
 
     public static ImageReader createImageReader(int width, int height, int format) {
+        return createImageReader(width, height, format,
+                FrameReaderConfig.DEFAULT_MAX_IMAGES,
+                FrameReaderConfig.DEFAULT_USAGE,
+                FrameReaderConfig.DATASPACE_UNSPECIFIED);
+    }
+
+    public static ImageReader createImageReader(int width,
+                                                int height,
+                                                int format,
+                                                int maxImages,
+                                                long usage,
+                                                int dataSpace) {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
-            long usage = HardwareBuffer.USAGE_GPU_COLOR_OUTPUT | HardwareBuffer.USAGE_CPU_READ_OFTEN;
+            if (!HardwareBuffer.isSupported(width, height, format, 1, usage)) {
+                Log.w(TAG, "createImageReader: usage is not supported, usage = 0x" + Long.toHexString(usage));
+                usage = FrameReaderConfig.DEFAULT_USAGE;
+            }
             if (HardwareBuffer.isSupported(width, height, format, 1, usage)) {
-                return ImageReader.newInstance(width, height, format, 2, usage);
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU
+                        && dataSpace != FrameReaderConfig.DATASPACE_UNSPECIFIED) {
+                    return new ImageReader.Builder(width, height)
+                            .setImageFormat(format)
+                            .setMaxImages(maxImages)
+                            .setUsage(usage)
+                            .setDefaultDataSpace(dataSpace)
+                            .build();
+                }
+                return ImageReader.newInstance(width, height, format, maxImages, usage);
             }
         }
-        return ImageReader.newInstance(width, height, format, 2);
+        return ImageReader.newInstance(width, height, format, maxImages);
     }
 
     public static FloatBuffer createFloatBuffer(int floatCount) {
@@ -0,0 +1,111 @@
+package io.zxingye.surfacebridge;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+import java.nio.FloatBuffer;
+
+import io.zxingye.surfacebridge.transform.Transform;
+
+/**
+ * 每个输出独立的顶点数据和VAO，只有纹理尺寸、视口大小、变换或者翻转变化时才重新计算和上传，
+ * 稳定状态下每帧绘制只需要绑定VAO。纹理坐标VBO和UBO仍然使用{@link EglBufferObjectHolder}中共享的。
+ * <p>
+ * 变换被视为不可变的，修改变换需要重新设置输出。GL对象在第一次使用时才创建，必须在GL线程调用。
+ */
+public class EglVertexArray implements AutoCloseable {
+
+    // 和EglProgram.VERTEX_SHADER中的layout(location)一致
+    private static final int VERTEX_ATTRIB_INDEX = 0;
+    private static final int TEX_ATTRIB_INDEX = 1;
+    private static final int DIMENSIONAL = 2;
+
+    private final float[] vertexCoord = new float[8];
+    private final FloatBuffer vertexBuffer = EglTool.createFloatBuffer(8);
+
+    private int vaoId;
+    private int vboId;
+    private boolean isValid;
+    private boolean isDirty;
+    private int texWidth;
+    private int texHeight;
+    private int viewportWidth;
+    private int viewportHeight;
+    private Transform transform;
+    private boolean flipVertical;
+
+    /**
+     * 参数有变化时重新计算顶点坐标
+     *
+     * @param flipVertical 是否上下翻转，绘制到FBO时需要翻转
+     * @return 顶点坐标，调用方不能修改
+     */
+    public float[] update(EglVertexCoord eglVertexCoord,
+                          int texWidth,
+                          int texHeight,
+                          int viewportWidth,
+                          int viewportHeight,
+                          Transform transform,
+                          boolean flipVertical) {
+        if (isValid
+                && texWidth == this.texWidth
+                && texHeight == this.texHeight
+                && viewportWidth == this.viewportWidth
+                && viewportHeight == this.viewportHeight
+                && transform == this.transform
+                && flipVertical == this.flipVertical) {
+            return vertexCoord;
+        }
+        eglVertexCoord.updateViewport(viewportWidth, viewportHeight);
+        float[] vertex = eglVertexCoord.getVertexCoord(texWidth, texHeight, transform);
+        System.arraycopy(vertex, 0, vertexCoord, 0, vertexCoord.length);
+        if (flipVertical) {
+            for (int i = 1; i < vertexCoord.length; i += 2) {
+                vertexCoord[i] = -vertexCoord[i];
+            }
+        }
+        this.texWidth = texWidth;
+        this.texHeight = texHeight;
+        this.viewportWidth = viewportWidth;
+        this.viewportHeight = viewportHeight;
+        this.transform = transform;
+        this.flipVertical = flipVertical;
+        isValid = true;
+        isDirty = true;
+        return vertexCoord;
+    }
+
+    /**
+     * @return 顶点坐标已经上传的VAO，第一次调用时创建
+     */
+    public int getVaoId(EglBufferObjectHolder eglBOHolder) {
+        if (vaoId == 0) {
+            try {
+                vertexBuffer.clear();
+                vertexBuffer.put(vertexCoord).rewind();
+                vboId = EglTool.createVbo(vertexBuffer, GLES20.GL_STATIC_DRAW);
+                vaoId = EglTool.createVao();
+                EglTool.bindVboPointerToVao(vaoId, vboId, VERTEX_ATTRIB_INDEX, DIMENSIONAL);
+                eglBOHolder.bindTexVboPointer(vaoId, TEX_ATTRIB_INDEX);
+            } catch (Exception e) {
+                close();
+                throw e;
+            }
+            isDirty = false;
+        }
+        if (isDirty) {
+            EglTool.updateBo(GLES30.GL_ARRAY_BUFFER, vboId, vertexBuffer, vertexCoord);
+            isDirty = false;
+        }
+        return vaoId;
+    }
+
+    @Override
+    public void close() {
+        EglTool.deleteVao(vaoId);
+        vaoId = 0;
+        EglTool.deleteBo(vboId);
+        vboId = 0;
+        isValid = false;
+    }
+}
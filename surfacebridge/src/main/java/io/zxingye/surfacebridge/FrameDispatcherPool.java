@@ -0,0 +1,66 @@
+package io.zxingye.surfacebridge;
+
+import android.os.Handler;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 帧监听共用的分发线程池，线程数有上限，添加和移除监听不会创建和销毁线程。
+ * 每个监听固定在一个线程上分发，保证同一个监听的回调是有序的；分配时优先选择监听数最少的线程。
+ */
+class FrameDispatcherPool {
+
+    private static final String TAG = "FrameDispatcherPool";
+
+    private final String name;
+    private final int maxThreadCount;
+    private final List<Handler> handlers = new ArrayList<>();
+    private final List<Integer> userCounts = new ArrayList<>();
+    private boolean isClosed;
+
+    FrameDispatcherPool(String name, int maxThreadCount) {
+        if (maxThreadCount < 1) {
+            throw new IllegalArgumentException("maxThreadCount < 1: " + maxThreadCount);
+        }
+        this.name = name;
+        this.maxThreadCount = maxThreadCount;
+    }
+
+    synchronized Handler acquire() {
+        if (isClosed) {
+            throw new IllegalStateException("pool is closed");
+        }
+        int index = -1;
+        for (int i = 0; i < handlers.size(); i++) {
+            if (index < 0 || userCounts.get(i) < userCounts.get(index)) {
+                index = i;
+            }
+        }
+        if (index < 0 || (userCounts.get(index) > 0 && handlers.size() < maxThreadCount)) {
+            handlers.add(Util.createWorkHandler(name + "_" + handlers.size()));
+            userCounts.add(0);
+            index = handlers.size() - 1;
+            Log.i(TAG, "acquire: create thread, threadCount = " + handlers.size());
+        }
+        userCounts.set(index, userCounts.get(index) + 1);
+        return handlers.get(index);
+    }
+
+    synchronized void release(Handler handler) {
+        int index = handlers.indexOf(handler);
+        if (index >= 0) {
+            userCounts.set(index, Math.max(0, userCounts.get(index) - 1));
+        }
+    }
+
+    synchronized void close() {
+        isClosed = true;
+        for (Handler handler : handlers) {
+            handler.getLooper().quitSafely();
+        }
+        handlers.clear();
+        userCounts.clear();
+    }
+}
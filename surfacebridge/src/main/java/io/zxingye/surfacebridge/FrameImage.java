@@ -0,0 +1,146 @@
+package io.zxingye.surfacebridge;
+
+import android.hardware.HardwareBuffer;
+import android.hardware.SyncFence;
+import android.media.Image;
+import android.os.Build;
+import android.util.Size;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 对ImageReader中Image的租借视图，数据不会被拷贝，直接指向Image的plane内存。
+ * 使用完毕后必须调用{@link #release()}，否则Image不会归还给ImageReader，后续的帧会被挂起。
+ */
+public class FrameImage implements AutoCloseable {
+
+    private final Image image;
+    private Image.Plane plane;
+    private final Size resolution;
+    private final FrameFormat format;
+    private final OnReleaseListener releaseListener;
+    private boolean isReleased;
+
+    FrameImage(Image image,
+               Size resolution,
+               FrameFormat format,
+               OnReleaseListener releaseListener) {
+        this.image = image;
+        this.resolution = resolution;
+        this.format = format;
+        this.releaseListener = releaseListener;
+    }
+
+    /**
+     * @return plane的原始数据，每行数据后面可能带有padding，需要结合{@link #getRowStride()}读取
+     */
+    public ByteBuffer getBuffer() {
+        return getPlane().getBuffer();
+    }
+
+    /**
+     * @return 相邻两行起始位置之间的字节数
+     */
+    public int getRowStride() {
+        return getPlane().getRowStride();
+    }
+
+    /**
+     * @return 相邻两个像素之间的字节数
+     */
+    public int getPixelStride() {
+        return getPlane().getPixelStride();
+    }
+
+    /**
+     * @return 每行中有效数据的字节数，剩余的 rowStride - rowLength 为padding
+     */
+    public int getRowLength() {
+        return image.getWidth() * getPlane().getPixelStride();
+    }
+
+    /**
+     * @return 有效数据的行数
+     */
+    public int getRowCount() {
+        return image.getHeight();
+    }
+
+    /**
+     * 直接获取Image背后的HardwareBuffer，可以导入到其他GPU或者NN加速器的API中，不会产生CPU读取。
+     *
+     * @return Android P以下返回null
+     */
+    public HardwareBuffer getHardwareBuffer() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+            return image.getHardwareBuffer();
+        }
+        return null;
+    }
+
+    /**
+     * 获取HardwareBuffer对应的fence，GPU写入完成后fence才会signal，跨API使用HardwareBuffer之前需要等待它。
+     *
+     * @return Android T以下返回null，此时无法获取fence
+     */
+    public SyncFence getFence() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+            try {
+                return image.getFence();
+            } catch (Exception e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    public long getTimestamp() {
+        return image.getTimestamp();
+    }
+
+    public Size getResolution() {
+        return resolution;
+    }
+
+    public FrameFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * 归还Image给ImageReader，可以在任意线程调用，重复调用无副作用。
+     * 调用之后不可再访问{@link #getBuffer()}返回的数据。
+     */
+    public void release() {
+        synchronized (this) {
+            if (isReleased) {
+                return;
+            }
+            isReleased = true;
+        }
+        releaseListener.onRelease(this);
+    }
+
+    @Override
+    public void close() {
+        release();
+    }
+
+    Image getImage() {
+        return image;
+    }
+
+    private Image.Plane getPlane() {
+        // getPlanes会把buffer锁定给CPU读取，只在真正需要CPU访问时才调用
+        if (plane == null) {
+            plane = image.getPlanes()[0];
+        }
+        return plane;
+    }
+
+    interface OnReleaseListener {
+        /**
+         * 使用者调用{@link #release()}时回调，可能在任意线程，每个FrameImage只回调一次
+         */
+        void onRelease(FrameImage frameImage);
+    }
+}
@@ -0,0 +1,219 @@
+package io.zxingye.surfacebridge;
+
+import android.hardware.HardwareBuffer;
+
+import java.util.Objects;
+import java.util.concurrent.Executor;
+
+/**
+ * 帧监听对应的ImageReader配置，用于在内存占用和GPU阻塞之间做取舍。
+ * maxImages越大，消费者处理慢时GPU越不容易阻塞在dequeueBuffer上，但是会占用更多的buffer内存。
+ */
+public class FrameReaderConfig {
+
+    public enum Backend {
+        /**
+         * 通过eglSwapBuffers把帧写入ImageReader的Surface，再从Image中读取
+         */
+        IMAGE_READER,
+        /**
+         * 把帧绘制到FBO，再通过PBO异步glReadPixels读取，没有BufferQueue的往返延迟，只支持OnFrameListener
+         */
+        PIXEL_BUFFER,
+        /**
+         * 仅用于YUV420格式（NV12、NV21、YU12、YV12），通过MRT一次绘制输出所有平面，再以PBO的方式读取，只支持OnFrameListener。
+         * 设备或格式不支持时会退回{@link #PIXEL_BUFFER}
+         */
+        MULTIPLE_RENDER_TARGET,
+        /**
+         * 仅用于YUV420格式，GL版本为3.1及以上时自动使用计算着色器一次dispatch写出所有平面，再以PBO的方式读取，只支持OnFrameListener。
+         * 输出的宽需要是8的倍数、高需要是2的倍数，不满足或设备不支持时依次退回{@link #MULTIPLE_RENDER_TARGET}、{@link #PIXEL_BUFFER}
+         */
+        COMPUTE,
+    }
+
+    public static final int DEFAULT_MAX_IMAGES = 2;
+
+    public static final long DEFAULT_USAGE = HardwareBuffer.USAGE_GPU_COLOR_OUTPUT | HardwareBuffer.USAGE_CPU_READ_OFTEN;
+
+    /**
+     * 不指定dataspace，使用系统默认值
+     */
+    public static final int DATASPACE_UNSPECIFIED = 0;
+
+    public static final FrameReaderConfig DEFAULT = new Builder().build();
+
+    private final int maxImages;
+    private final long usage;
+    private final int dataSpace;
+    private final boolean directBuffer;
+    private final Backend backend;
+    private final FrameThrottle frameThrottle;
+    private final Executor callbackExecutor;
+
+    private FrameReaderConfig(Builder builder) {
+        this.maxImages = builder.maxImages;
+        this.usage = builder.usage;
+        this.dataSpace = builder.dataSpace;
+        this.directBuffer = builder.directBuffer;
+        this.backend = builder.backend;
+        this.frameThrottle = builder.frameThrottle;
+        this.callbackExecutor = builder.callbackExecutor;
+    }
+
+    public int getMaxImages() {
+        return maxImages;
+    }
+
+    public long getUsage() {
+        return usage;
+    }
+
+    public int getDataSpace() {
+        return dataSpace;
+    }
+
+    public boolean isDirectBuffer() {
+        return directBuffer;
+    }
+
+    public Backend getBackend() {
+        return backend;
+    }
+
+    public FrameThrottle getFrameThrottle() {
+        return frameThrottle;
+    }
+
+    public Executor getCallbackExecutor() {
+        return callbackExecutor;
+    }
+
+    public Builder buildUpon() {
+        return new Builder(this);
+    }
+
+    /**
+     * callbackExecutor按引用比较，其余参数按值比较
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        FrameReaderConfig that = (FrameReaderConfig) o;
+        return maxImages == that.maxImages
+                && usage == that.usage
+                && dataSpace == that.dataSpace
+                && directBuffer == that.directBuffer
+                && backend == that.backend
+                && frameThrottle.equals(that.frameThrottle)
+                && callbackExecutor == that.callbackExecutor;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(maxImages, usage, dataSpace, directBuffer, backend, frameThrottle,
+                System.identityHashCode(callbackExecutor));
+    }
+
+    @Override
+    public String toString() {
+        return "FrameReaderConfig{" +
+                "maxImages=" + maxImages +
+                ", usage=0x" + Long.toHexString(usage) +
+                ", dataSpace=" + dataSpace +
+                ", directBuffer=" + directBuffer +
+                ", backend=" + backend +
+                ", frameThrottle=" + frameThrottle +
+                ", callbackExecutor=" + callbackExecutor +
+                '}';
+    }
+
+    public static class Builder {
+        private int maxImages = DEFAULT_MAX_IMAGES;
+        private long usage = DEFAULT_USAGE;
+        private int dataSpace = DATASPACE_UNSPECIFIED;
+        private boolean directBuffer = false;
+        private Backend backend = Backend.IMAGE_READER;
+        private FrameThrottle frameThrottle = FrameThrottle.NONE;
+        private Executor callbackExecutor;
+
+        public Builder() {
+        }
+
+        private Builder(FrameReaderConfig config) {
+            this.maxImages = config.maxImages;
+            this.usage = config.usage;
+            this.dataSpace = config.dataSpace;
+            this.directBuffer = config.directBuffer;
+            this.backend = config.backend;
+            this.frameThrottle = config.frameThrottle;
+            this.callbackExecutor = config.callbackExecutor;
+        }
+
+        /**
+         * @param maxImages ImageReader的buffer数量，不能小于1，对于{@link Backend#PIXEL_BUFFER}表示PBO的数量（最少为2）
+         */
+        public Builder setMaxImages(int maxImages) {
+            if (maxImages < 1) {
+                throw new IllegalArgumentException("maxImages < 1: " + maxImages);
+            }
+            this.maxImages = maxImages;
+            return this;
+        }
+
+        /**
+         * @param usage HardwareBuffer的usage标记，仅在Android Q及以上生效，不支持时会退回默认的usage
+         */
+        public Builder setUsage(long usage) {
+            this.usage = usage;
+            return this;
+        }
+
+        /**
+         * @param dataSpace ImageReader的dataspace，取值见android.hardware.DataSpace，仅在Android T及以上生效
+         */
+        public Builder setDataSpace(int dataSpace) {
+            this.dataSpace = dataSpace;
+            return this;
+        }
+
+        /**
+         * @param directBuffer 回调给OnFrameListener的buffer是否为direct buffer
+         */
+        public Builder setDirectBuffer(boolean directBuffer) {
+            this.directBuffer = directBuffer;
+            return this;
+        }
+
+        /**
+         * @param backend 帧读取的方式，默认为{@link Backend#IMAGE_READER}，可以用来在同一台设备上对比两种方式的性能
+         */
+        public Builder setBackend(Backend backend) {
+            this.backend = Objects.requireNonNull(backend);
+            return this;
+        }
+
+        /**
+         * @param frameThrottle 帧率限制，被限制的帧不会绘制和读取，默认为{@link FrameThrottle#NONE}
+         */
+        public Builder setFrameThrottle(FrameThrottle frameThrottle) {
+            this.frameThrottle = Objects.requireNonNull(frameThrottle);
+            return this;
+        }
+
+        /**
+         * @param callbackExecutor 回调监听的executor，同一个监听的回调保证按顺序执行。
+         *                         为null时在SurfaceBridge共用的分发线程中回调。
+         *                         对于OnFrameListener，上一帧还没回调完时新帧会被丢弃
+         */
+        public Builder setCallbackExecutor(Executor callbackExecutor) {
+            this.callbackExecutor = callbackExecutor;
+            return this;
+        }
+
+        public FrameReaderConfig build() {
+            return new FrameReaderConfig(this);
+        }
+    }
+}
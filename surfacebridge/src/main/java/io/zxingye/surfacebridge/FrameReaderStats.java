@@ -0,0 +1,66 @@
+package io.zxingye.surfacebridge;
+
+/**
+ * 帧监听的绘制统计，用于衡量ImageReader的buffer数量是否足够。
+ * 当消费者没有及时归还buffer时，eglSwapBuffers会阻塞在dequeueBuffer上，耗时超过{@link #STALL_THRESHOLD_NS}即记为一次阻塞。
+ * 对于{@link FrameReaderConfig.Backend#PIXEL_BUFFER}，统计的是提交glReadPixels的耗时；对于{@link FrameReaderConfig.Backend#COMPUTE}，统计的是提交dispatch的耗时。
+ * 所有数据只在GL线程写入，可以在任意线程读取。
+ */
+public class FrameReaderStats {
+
+    public static final long STALL_THRESHOLD_NS = 2_000_000L;
+
+    private volatile long swapCount;
+    private volatile long stallCount;
+    private volatile long stallTimeNs;
+    private volatile long maxSwapTimeNs;
+
+    /**
+     * @return 已经绘制到ImageReader的帧数
+     */
+    public long getSwapCount() {
+        return swapCount;
+    }
+
+    /**
+     * @return eglSwapBuffers发生阻塞的次数
+     */
+    public long getStallCount() {
+        return stallCount;
+    }
+
+    /**
+     * @return 所有阻塞累计的耗时，单位纳秒
+     */
+    public long getStallTimeNs() {
+        return stallTimeNs;
+    }
+
+    /**
+     * @return 单次eglSwapBuffers的最大耗时，单位纳秒
+     */
+    public long getMaxSwapTimeNs() {
+        return maxSwapTimeNs;
+    }
+
+    void onSwap(long swapTimeNs) {
+        swapCount++;
+        if (swapTimeNs > maxSwapTimeNs) {
+            maxSwapTimeNs = swapTimeNs;
+        }
+        if (swapTimeNs >= STALL_THRESHOLD_NS) {
+            stallCount++;
+            stallTimeNs += swapTimeNs;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "FrameReaderStats{" +
+                "swapCount=" + swapCount +
+                ", stallCount=" + stallCount +
+                ", stallTimeNs=" + stallTimeNs +
+                ", maxSwapTimeNs=" + maxSwapTimeNs +
+                '}';
+    }
+}
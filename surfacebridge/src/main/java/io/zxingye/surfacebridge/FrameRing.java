@@ -0,0 +1,204 @@
+package io.zxingye.surfacebridge;
+
+import android.util.Size;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * 预分配的帧缓冲环，所有帧的内存来自同一块连续的direct内存，运行过程中不会再分配。
+ * 使用者通过{@link #acquireFrame()}取出最早到达的帧，可以同时持有多帧，用完后调用{@link Frame#release()}归还。
+ * 当所有帧都被占用时，会按照{@link Policy}处理新到达的帧。
+ */
+public class FrameRing {
+
+    public enum Policy {
+        /**
+         * 复用最早一个还未被取走的帧，如果全部帧都被持有，则丢弃新帧
+         */
+        DROP_OLDEST,
+        /**
+         * 丢弃新到达的帧
+         */
+        DROP_NEWEST,
+        /**
+         * 不再从ImageReader取帧，直到有帧被归还，不会丢弃已经绘制的帧。
+         * 期间GL线程跳过该帧监听的绘制，而不是在eglSwapBuffers中等待ImageReader的空闲buffer，
+         * 所以不会阻塞GL线程、其他输出和命令队列；帧环耗尽期间的输入帧不会出现在该帧监听中
+         */
+        BLOCK,
+    }
+
+    private final ArrayDeque<Frame> freeFrames;
+    private final ArrayDeque<Frame> readyFrames;
+    private final Policy policy;
+    private final int capacity;
+    private final Runnable onFrameReleased;
+    private long droppedCount;
+
+    FrameRing(int capacity,
+              long frameSize,
+              Size resolution,
+              FrameFormat format,
+              Policy policy,
+              Runnable onFrameReleased) {
+        if (capacity <= 0 || frameSize <= 0) {
+            throw new IllegalArgumentException("capacity = " + capacity + ", frameSize = " + frameSize);
+        }
+        long slabSize = capacity * frameSize;
+        if (slabSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("ring is too large: capacity = " + capacity
+                    + ", frameSize = " + frameSize);
+        }
+        this.capacity = capacity;
+        this.policy = policy;
+        this.onFrameReleased = onFrameReleased;
+        this.freeFrames = new ArrayDeque<>(capacity);
+        this.readyFrames = new ArrayDeque<>(capacity);
+        ByteBuffer slab = ByteBuffer.allocateDirect((int) slabSize);
+        for (int i = 0; i < capacity; i++) {
+            slab.limit((int) ((i + 1) * frameSize));
+            slab.position((int) (i * frameSize));
+            freeFrames.add(new Frame(this, slab.slice(), resolution, format));
+        }
+    }
+
+    /**
+     * 取出最早到达的一帧，可以在任意线程调用。
+     *
+     * @return 没有可用的帧时返回null
+     */
+    public synchronized Frame acquireFrame() {
+        Frame frame = readyFrames.poll();
+        if (frame != null) {
+            frame.isAcquired = true;
+        }
+        return frame;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    public synchronized int getReadyCount() {
+        return readyFrames.size();
+    }
+
+    /**
+     * @return 被使用者持有、尚未归还的帧数量
+     */
+    public synchronized int getAcquiredCount() {
+        return capacity - freeFrames.size() - readyFrames.size();
+    }
+
+    /**
+     * @return 因为帧环耗尽而被丢弃的帧数量
+     */
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    synchronized int getFreeCount() {
+        return freeFrames.size();
+    }
+
+    synchronized Frame obtainFrame() {
+        Frame frame = freeFrames.poll();
+        if (frame == null && policy == Policy.DROP_OLDEST) {
+            frame = readyFrames.poll();
+            if (frame != null) {
+                droppedCount++;
+            }
+        }
+        return frame;
+    }
+
+    synchronized void queueFrame(Frame frame) {
+        readyFrames.add(frame);
+    }
+
+    synchronized void recycleFrame(Frame frame) {
+        freeFrames.add(frame);
+    }
+
+    synchronized void onFrameDropped() {
+        droppedCount++;
+    }
+
+    private void release(Frame frame) {
+        synchronized (this) {
+            if (!frame.isAcquired) {
+                return;
+            }
+            frame.isAcquired = false;
+            freeFrames.add(frame);
+        }
+        if (onFrameReleased != null) {
+            onFrameReleased.run();
+        }
+    }
+
+    public static class Frame implements AutoCloseable {
+        private final FrameRing ring;
+        private final ByteBuffer buffer;
+        private final ByteBuffer readOnlyBuffer;
+        private final Size resolution;
+        private final FrameFormat format;
+        private long timestamp;
+        private boolean isAcquired;
+
+        private Frame(FrameRing ring, ByteBuffer buffer, Size resolution, FrameFormat format) {
+            this.ring = ring;
+            this.buffer = buffer;
+            this.readOnlyBuffer = buffer.asReadOnlyBuffer();
+            this.resolution = resolution;
+            this.format = format;
+        }
+
+        /**
+         * @return 紧密排列的帧数据，在调用release之前不会被覆盖
+         */
+        public ByteBuffer getBuffer() {
+            return readOnlyBuffer;
+        }
+
+        public Size getResolution() {
+            return resolution;
+        }
+
+        public FrameFormat getFormat() {
+            return format;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * 归还帧给帧环，可以在任意线程调用，重复调用无副作用。
+         */
+        public void release() {
+            ring.release(this);
+        }
+
+        @Override
+        public void close() {
+            release();
+        }
+
+        ByteBuffer prepareWrite(long timestamp) {
+            this.timestamp = timestamp;
+            buffer.clear();
+            return buffer;
+        }
+
+        void finishWrite() {
+            readOnlyBuffer.position(0);
+            readOnlyBuffer.limit(buffer.position());
+        }
+    }
+}
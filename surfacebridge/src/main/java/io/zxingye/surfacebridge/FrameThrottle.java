@@ -0,0 +1,82 @@
+package io.zxingye.surfacebridge;
+
+/**
+ * 输出的帧率限制，用于只需要低帧率的输出（比如分析类的帧监听）。
+ * 被限制的帧不会对该输出做任何绘制，也不会makeCurrent和eglSwapBuffers，不产生任何GPU开销。
+ * <p>
+ * 可以限制最大帧率，也可以每N帧只绘制一帧。
+ */
+public final class FrameThrottle {
+
+    /**
+     * 不做任何限制，每一帧都绘制
+     */
+    public static final FrameThrottle NONE = new FrameThrottle(0, 1);
+
+    /**
+     * @param fps 最大帧率，按帧的时间戳计算，必须大于0
+     */
+    public static FrameThrottle maxFps(float fps) {
+        if (!(fps > 0)) {
+            throw new IllegalArgumentException("fps <= 0: " + fps);
+        }
+        return new FrameThrottle((long) (1_000_000_000L / fps), 1);
+    }
+
+    /**
+     * @param n 每n帧绘制一帧，1表示每帧都绘制
+     */
+    public static FrameThrottle everyNthFrame(int n) {
+        if (n < 1) {
+            throw new IllegalArgumentException("n < 1: " + n);
+        }
+        return new FrameThrottle(0, n);
+    }
+
+    private final long minIntervalNs;
+    private final int frameInterval;
+
+    private FrameThrottle(long minIntervalNs, int frameInterval) {
+        this.minIntervalNs = minIntervalNs;
+        this.frameInterval = frameInterval;
+    }
+
+    /**
+     * @return 两次绘制之间的最小间隔，0表示不限制
+     */
+    public long getMinIntervalNs() {
+        return minIntervalNs;
+    }
+
+    /**
+     * @return 每多少帧绘制一帧
+     */
+    public int getFrameInterval() {
+        return frameInterval;
+    }
+
+    public boolean isNone() {
+        return minIntervalNs <= 0 && frameInterval <= 1;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        FrameThrottle that = (FrameThrottle) o;
+        return minIntervalNs == that.minIntervalNs && frameInterval == that.frameInterval;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Long.hashCode(minIntervalNs) + frameInterval;
+    }
+
+    @Override
+    public String toString() {
+        return "FrameThrottle{" +
+                "minIntervalNs=" + minIntervalNs +
+                ", frameInterval=" + frameInterval +
+                '}';
+    }
+}
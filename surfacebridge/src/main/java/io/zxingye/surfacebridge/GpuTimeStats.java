@@ -0,0 +1,108 @@
+package io.zxingye.surfacebridge;
+
+import java.util.Arrays;
+
+/**
+ * 一组GPU耗时样本的快照，样本是最近{@link #WINDOW_SIZE}次绘制的GPU耗时，单位纳秒。
+ * 分位数按最近邻排名计算，没有样本时都为0。
+ */
+public class GpuTimeStats {
+
+    public static final int WINDOW_SIZE = 128;
+
+    private final long totalCount;
+    private final int sampleCount;
+    private final long p50Ns;
+    private final long p90Ns;
+    private final long p99Ns;
+    private final long maxNs;
+    private final long averageNs;
+
+    private GpuTimeStats(long totalCount, long[] sortedSamples) {
+        this.totalCount = totalCount;
+        this.sampleCount = sortedSamples.length;
+        this.p50Ns = percentile(sortedSamples, 50);
+        this.p90Ns = percentile(sortedSamples, 90);
+        this.p99Ns = percentile(sortedSamples, 99);
+        this.maxNs = sampleCount > 0 ? sortedSamples[sampleCount - 1] : 0;
+        long sum = 0;
+        for (long sample : sortedSamples) {
+            sum += sample;
+        }
+        this.averageNs = sampleCount > 0 ? sum / sampleCount : 0;
+    }
+
+    /**
+     * @return 累计记录的样本数
+     */
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    /**
+     * @return 参与计算分位数的样本数，不超过{@link #WINDOW_SIZE}
+     */
+    public int getSampleCount() {
+        return sampleCount;
+    }
+
+    public long getP50Ns() {
+        return p50Ns;
+    }
+
+    public long getP90Ns() {
+        return p90Ns;
+    }
+
+    public long getP99Ns() {
+        return p99Ns;
+    }
+
+    public long getMaxNs() {
+        return maxNs;
+    }
+
+    public long getAverageNs() {
+        return averageNs;
+    }
+
+    private static long percentile(long[] sortedSamples, int percent) {
+        if (sortedSamples.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(percent / 100.0 * sortedSamples.length);
+        return sortedSamples[Math.max(0, rank - 1)];
+    }
+
+    @Override
+    public String toString() {
+        return "GpuTimeStats{" +
+                "totalCount=" + totalCount +
+                ", sampleCount=" + sampleCount +
+                ", p50Ns=" + p50Ns +
+                ", p90Ns=" + p90Ns +
+                ", p99Ns=" + p99Ns +
+                ", maxNs=" + maxNs +
+                ", averageNs=" + averageNs +
+                '}';
+    }
+
+    /**
+     * 最近{@link #WINDOW_SIZE}个样本的环形窗口，只在GL线程写入，可以在任意线程取快照
+     */
+    static class Window {
+        private final long[] samples = new long[WINDOW_SIZE];
+        private long totalCount;
+
+        synchronized void add(long sampleNs) {
+            samples[(int) (totalCount % WINDOW_SIZE)] = sampleNs;
+            totalCount++;
+        }
+
+        synchronized GpuTimeStats snapshot() {
+            long[] sorted = Arrays.copyOf(samples, (int) Math.min(totalCount, WINDOW_SIZE));
+            Arrays.sort(sorted);
+            return new GpuTimeStats(totalCount, sorted);
+        }
+    }
+}
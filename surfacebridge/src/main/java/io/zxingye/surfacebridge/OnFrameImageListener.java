@@ -0,0 +1,11 @@
+package io.zxingye.surfacebridge;
+
+public interface OnFrameImageListener {
+    /**
+     * 零拷贝的帧回调方法，frame直接指向ImageReader中的Image内存。
+     * 在调用{@link FrameImage#release()}之前，内部不会再回调新的帧，而是只保留最新的一帧等待释放后回调。
+     *
+     * @param frame 帧数据的租借视图，可以跨线程持有，使用完毕后必须调用release。
+     */
+    void onFrame(FrameImage frame);
+}
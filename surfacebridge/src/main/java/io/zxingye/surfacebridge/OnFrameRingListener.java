@@ -0,0 +1,18 @@
+package io.zxingye.surfacebridge;
+
+public interface OnFrameRingListener {
+    /**
+     * 有新的帧写入帧环时回调，使用者可以在这里或者其他线程通过{@link FrameRing#acquireFrame()}取帧。
+     * 注意：输入大小变化时内部会重建帧环，之前的帧环不会再有新帧，但已取出的帧依然有效。
+     *
+     * @param ring 帧环
+     */
+    void onFrameAvailable(FrameRing ring);
+
+    /**
+     * 帧环中的所有帧都被占用时回调，表示消费速度跟不上生产速度。
+     *
+     * @param ring 帧环，可以通过{@link FrameRing#getDroppedCount()}获取累计丢帧数
+     */
+    void onRingExhausted(FrameRing ring);
+}
@@ -0,0 +1,12 @@
+package io.zxingye.surfacebridge;
+
+public interface OnHardwareBufferListener {
+    /**
+     * HardwareBuffer的帧回调方法，帧不会被读回到CPU内存。
+     * 通过{@link FrameImage#getHardwareBuffer()}和{@link FrameImage#getFence()}获取buffer和fence，
+     * 在调用{@link FrameImage#release()}之前，buffer不会被复用，也不会再回调新的帧。
+     *
+     * @param frame 帧的租借视图，可以跨线程持有，使用完毕后必须调用release。
+     */
+    void onFrame(FrameImage frame);
+}
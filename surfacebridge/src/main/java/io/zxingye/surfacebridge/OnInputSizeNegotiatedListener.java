@@ -0,0 +1,13 @@
+package io.zxingye.surfacebridge;
+
+import android.util.Size;
+
+public interface OnInputSizeNegotiatedListener {
+    /**
+     * 协商出的输入大小变化时在GL线程中回调，内部已经对输入的SurfaceTexture调用了setDefaultBufferSize。
+     * 对于自己指定buffer大小的生产者（比如Camera2的输出配置、VirtualDisplay），可以在这里按新的大小重新配置。
+     *
+     * @param size 能满足所有输出的最小输入大小，宽高比和设置的默认输入大小一致
+     */
+    void onInputSizeNegotiated(Size size);
+}
@@ -0,0 +1,53 @@
+package io.zxingye.surfacebridge;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+
+/**
+ * 把任务按提交顺序串行地交给另一个executor执行，用于在多线程的executor上保证同一个监听的回调顺序。
+ * 交给executor的始终是同一个runnable，提交任务时不会创建新的对象。
+ */
+class SerialExecutor implements Executor {
+
+    private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+    private final Executor executor;
+    private final Runnable runner = this::runNext;
+    private boolean isActive;
+
+    SerialExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public void execute(Runnable runnable) {
+        synchronized (this) {
+            tasks.offer(runnable);
+            if (isActive) {
+                return;
+            }
+            isActive = true;
+        }
+        executor.execute(runner);
+    }
+
+    private void runNext() {
+        Runnable task;
+        synchronized (this) {
+            task = tasks.poll();
+        }
+        try {
+            if (task != null) {
+                task.run();
+            }
+        } finally {
+            boolean hasNext;
+            synchronized (this) {
+                hasNext = !tasks.isEmpty();
+                isActive = hasNext;
+            }
+            if (hasNext) {
+                executor.execute(runner);
+            }
+        }
+    }
+}
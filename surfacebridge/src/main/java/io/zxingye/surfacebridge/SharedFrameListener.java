@@ -0,0 +1,110 @@
+package io.zxingye.surfacebridge;
+
+import android.util.Size;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Objects;
+
+import io.zxingye.surfacebridge.transform.Transform;
+
+/**
+ * 格式、大小、变换和配置都相同的OnFrameListener共用的监听，多个监听只对应一个帧读取器，
+ * 每帧只绘制、读取一次，再依次分发给每个监听。
+ * <p>
+ * 同一帧的所有监听在同一个任务中依次回调，每个监听回调前都会恢复buffer的position和limit，
+ * 所有监听都返回后这一帧的buffer才会被复用；监听的引用计数为0时由SurfaceBridge关闭读取器。
+ * 非线程安全，增删监听需要调用方同步，分发时只读取监听数组的快照。
+ */
+class SharedFrameListener implements OnFrameListener {
+
+    private static final OnFrameListener[] EMPTY = new OnFrameListener[0];
+
+    private final Key key;
+    private final FrameReaderStats stats = new FrameReaderStats();
+    private volatile OnFrameListener[] listeners = EMPTY;
+
+    SharedFrameListener(Key key) {
+        this.key = key;
+    }
+
+    @Override
+    public void onFrame(ByteBuffer frame, Size resolution, FrameFormat format) {
+        OnFrameListener[] snapshot = listeners;
+        int position = frame.position();
+        int limit = frame.limit();
+        for (OnFrameListener listener : snapshot) {
+            try {
+                listener.onFrame(frame, resolution, format);
+            } finally {
+                frame.limit(limit);
+                frame.position(position);
+            }
+        }
+    }
+
+    void add(OnFrameListener listener) {
+        OnFrameListener[] old = listeners;
+        OnFrameListener[] newListeners = Arrays.copyOf(old, old.length + 1);
+        newListeners[old.length] = listener;
+        listeners = newListeners;
+    }
+
+    /**
+     * @return 移除后剩余的监听数量
+     */
+    int remove(OnFrameListener listener) {
+        OnFrameListener[] old = listeners;
+        for (int i = 0; i < old.length; i++) {
+            if (old[i] == listener) {
+                OnFrameListener[] newListeners = new OnFrameListener[old.length - 1];
+                System.arraycopy(old, 0, newListeners, 0, i);
+                System.arraycopy(old, i + 1, newListeners, i, old.length - i - 1);
+                listeners = newListeners;
+                return newListeners.length;
+            }
+        }
+        return old.length;
+    }
+
+    Key getKey() {
+        return key;
+    }
+
+    FrameReaderStats getStats() {
+        return stats;
+    }
+
+    /**
+     * 共用读取器的条件，变换被视为不可变的，按引用比较
+     */
+    static class Key {
+        final FrameFormat format;
+        final Size outputSize;
+        final Transform transform;
+        final FrameReaderConfig config;
+
+        Key(FrameFormat format, Size outputSize, Transform transform, FrameReaderConfig config) {
+            this.format = format;
+            this.outputSize = outputSize;
+            this.transform = transform;
+            this.config = config;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return format == key.format
+                    && outputSize.equals(key.outputSize)
+                    && transform == key.transform
+                    && config.equals(key.config);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(format, outputSize, System.identityHashCode(transform), config);
+        }
+    }
+}
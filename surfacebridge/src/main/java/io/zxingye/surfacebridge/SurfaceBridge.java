@@ -1,14 +1,25 @@
 package io.zxingye.surfacebridge;
 
+import android.content.ComponentCallbacks2;
 import android.graphics.SurfaceTexture;
+import android.hardware.HardwareBuffer;
+import android.opengl.GLException;
+import android.os.Build;
 import android.os.Handler;
 import android.util.Log;
 import android.util.Size;
 import android.view.Surface;
 
-import java.nio.ByteBuffer;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 
 import io.zxingye.surfacebridge.transform.Transform;
 
@@ -16,41 +27,142 @@ public class SurfaceBridge {
 
     private static final String TAG = "GLFrameDispatcher";
 
+    /**
+     * 闲置帧读取器默认的内存上限，见{@link #setIdleReaderPoolSize(long)}
+     */
+    public static final long DEFAULT_IDLE_READER_POOL_SIZE = 32L * 1024 * 1024;
+
+    /**
+     * 是否开启调试模式，建议传入BuildConfig.DEBUG，默认关闭。
+     * 这是进程级的全局开关，对所有SurfaceBridge实例同时生效，可以在任意时刻修改。
+     * 调试模式下每帧都会检查glGetError、查询纹理和输出Surface的尺寸，出错时立即抛出异常；
+     * 关闭时这些同步查询会被缓存或者按帧采样执行，GL错误只会打印日志。
+     */
+    public static void setDebugMode(boolean debugMode) {
+        EglTool.setDebugMode(debugMode);
+    }
+
+    /**
+     * 设置program二进制的磁盘缓存目录，再次启动时可以跳过着色器的编译，需要在create之前调用，默认不缓存。
+     * 比如context.getCodeCacheDir()，缓存只写入其中的surfacebridge_program_cache子目录，不会影响目录中的其他文件，
+     * 驱动升级后旧的缓存会被自动删除。
+     *
+     * @param dir 缓存目录，为null时关闭缓存
+     */
+    public static void setProgramCacheDir(File dir) {
+        EglProgramBinaryCache.setCacheDir(dir);
+    }
+
     public static SurfaceBridge create() {
         return create("SurfaceBridge");
     }
 
     public static SurfaceBridge create(String threadName) {
+        int cpuCount = Runtime.getRuntime().availableProcessors();
+        return create(threadName, Math.max(1, Math.min(4, cpuCount / 2)));
+    }
+
+    /**
+     * @param threadName            GL线程的名字
+     * @param dispatcherThreadCount 帧监听共用的分发线程数上限，帧监听比较多时可以适当调大
+     */
+    public static SurfaceBridge create(String threadName, int dispatcherThreadCount) {
+        EglFuture<SurfaceBridge> future = createAsync(threadName, dispatcherThreadCount);
+        boolean isInterrupted = false;
+        try {
+            while (true) {
+                try {
+                    return future.get();
+                } catch (InterruptedException e) {
+                    // 和之前的同步创建一致，等待创建完成后再恢复中断状态，避免创建好的SurfaceBridge泄漏
+                    isInterrupted = true;
+                }
+            }
+        } catch (ExecutionException | CancellationException e) {
+            Log.w(TAG, "create fail: " + e);
+            return null;
+        } finally {
+            if (isInterrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public static EglFuture<SurfaceBridge> createAsync() {
+        return createAsync("SurfaceBridge");
+    }
+
+    public static EglFuture<SurfaceBridge> createAsync(String threadName) {
+        int cpuCount = Runtime.getRuntime().availableProcessors();
+        return createAsync(threadName, Math.max(1, Math.min(4, cpuCount / 2)));
+    }
+
+    /**
+     * 异步创建，不阻塞调用线程，EGL环境在新的GL线程中初始化，可以通过{@link EglFuture#addListener}在指定的executor中接收结果。
+     * 创建失败时future以GLException结束。
+     *
+     * @param threadName            GL线程的名字
+     * @param dispatcherThreadCount 帧监听共用的分发线程数上限，帧监听比较多时可以适当调大
+     */
+    public static EglFuture<SurfaceBridge> createAsync(String threadName, int dispatcherThreadCount) {
+        FrameDispatcherPool dispatcherPool = new FrameDispatcherPool(
+                threadName + "_dispatcher", dispatcherThreadCount);
         Handler eglHandler = Util.createWorkHandler(threadName);
-        SurfaceBridge[] result = new SurfaceBridge[1];
-        Util.runOn(eglHandler, () -> {
+        EglFuture<SurfaceBridge> future = new EglFuture<>();
+        eglHandler.post(() -> {
             EglCore core = EglCore.create(null);
-            int oesTextureId;
             if (core != null) {
-                oesTextureId = core.createOESTextureObject();
+                int oesTextureId = core.createOESTextureObject();
                 if (oesTextureId > 0) {
-                    result[0] = new SurfaceBridge(core, oesTextureId, eglHandler);
-                } else {
-                    core.close();
+                    future.complete(new SurfaceBridge(core, oesTextureId, eglHandler, dispatcherPool));
+                    return;
                 }
+                core.close();
             }
-        }, true);
-        return result[0];
+            eglHandler.getLooper().quit();
+            dispatcherPool.close();
+            future.completeExceptionally(new GLException(-1, "create SurfaceBridge fail: " + threadName));
+        });
+        return future;
     }
 
-    private final Map<OnFrameListener, EglFrameReaderHelper> onFrameListenerMap = new HashMap<>();
+    private final Map<Object, EglFrameReaderHelper> onFrameListenerMap = new HashMap<>();
+    // 配置相同的OnFrameListener共用一个读取器，两个map都由sharedListenerMap加锁保护
+    private final Map<SharedFrameListener.Key, SharedFrameListener> sharedListenerMap = new HashMap<>();
+    private final Map<OnFrameListener, SharedFrameListener> listenerShareMap = new HashMap<>();
     private final float[] textureMatrix = new float[16];
     private final int[] texSize = new int[2];
+    private final float[] texSizeVector = new float[8];
+    // 上次查询纹理尺寸时的变换矩阵，矩阵不变时非调试模式下按间隔采样查询
+    private final float[] lastTextureMatrix = new float[16];
+    private int texSizeQueryCountdown;
     private final EglCore eglCore;
     private final SurfaceTexture inputSurfaceTexture;
     private final Handler eglHandler;
+    private final EglCommandQueue commandQueue;
+    private final FrameDispatcherPool dispatcherPool;
+    // 只在GL线程中使用
+    private final EglFrameReaderPool readerPool = new EglFrameReaderPool(DEFAULT_IDLE_READER_POOL_SIZE);
     private int oesTextureId;
     private Size inputSize;
+    // 输入大小协商的状态，只在GL线程中读写
+    private boolean isInputSizeNegotiated;
+    private OnInputSizeNegotiatedListener inputSizeNegotiatedListener;
+    private Size requestedInputSize;
+    private Size negotiatedInputSize;
+    // 暂停状态，只在GL线程中读写
+    private boolean isPaused;
+    private boolean isReaderReleased;
 
-    private SurfaceBridge(EglCore eglCore, int oesTextureId, Handler handler) {
+    private SurfaceBridge(EglCore eglCore,
+                          int oesTextureId,
+                          Handler handler,
+                          FrameDispatcherPool dispatcherPool) {
         this.eglCore = eglCore;
+        this.dispatcherPool = dispatcherPool;
         this.oesTextureId = oesTextureId;
         this.eglHandler = handler;
+        this.commandQueue = new EglCommandQueue(handler);
         this.inputSurfaceTexture = new InnerSurfaceTexture(oesTextureId, this::drawSurface, eglHandler);
         this.inputSize = new Size(-1, -1);
         Log.i(TAG, "create: " + handler.getLooper().getThread().getName());
@@ -62,6 +174,11 @@ public class SurfaceBridge {
                 imageReader.close();
             }
             onFrameListenerMap.clear();
+            readerPool.trim(0);
+            synchronized (sharedListenerMap) {
+                sharedListenerMap.clear();
+                listenerShareMap.clear();
+            }
             if (inputSurfaceTexture != null) {
                 inputSurfaceTexture.release();
             }
@@ -71,8 +188,62 @@ public class SurfaceBridge {
             }
             eglHandler.getLooper().quit();
             oesTextureId = -1;
+            commandQueue.close();
+            dispatcherPool.close();
+        });
+
+    }
+
+    /**
+     * 暂停绘制和帧监听的回调，EGL环境、program、OES纹理、输出Surface和监听都会保留，恢复时不需要重新初始化。
+     * 暂停期间输入的帧仍然会被消费掉，生产者不会因为buffer耗尽而阻塞。
+     *
+     * @param releaseReaderBuffers 是否释放帧监听的读取器（ImageReader、PBO等）和闲置读取器池，
+     *                             释放后可以节省内存，恢复时按当前的输入大小重新创建读取器
+     */
+    public EglFuture<Void> pause(boolean releaseReaderBuffers) {
+        // pause、resume以及释放与否的pause各自使用不同的合并key，只合并完全相同的调用：
+        // 合并后的命令移到队尾，最终状态和按顺序执行一致，也不会丢掉还没生效的释放读取器的请求
+        return run(releaseReaderBuffers ? "pauseAndReleaseReaders" : "pause", () -> {
+            isPaused = true;
+            if (releaseReaderBuffers) {
+                releaseReaders();
+            }
+            Log.i(TAG, "pause: releaseReaderBuffers = " + releaseReaderBuffers);
+        });
+    }
+
+    public EglFuture<Void> resume() {
+        return run("resume", () -> {
+            if (isReaderReleased) {
+                for (EglFrameReaderHelper helper : onFrameListenerMap.values()) {
+                    helper.updateInputSize(inputSize);
+                }
+                isReaderReleased = false;
+            }
+            isPaused = false;
+            Log.i(TAG, "resume");
         });
+    }
 
+    /**
+     * 根据内存压力释放内存，可以直接在{@link android.content.ComponentCallbacks2#onTrimMemory(int)}中调用。
+     * <ul>
+     * <li>任何级别：释放闲置读取器池中的读取器（包括预热的）</li>
+     * <li>TRIM_MEMORY_RUNNING_LOW及以上：释放没有在回调中的CPU帧数据buffer（下一帧重新分配），
+     * 删除当前没有输出使用的program；暂停时同时释放中间纹理</li>
+     * <li>TRIM_MEMORY_BACKGROUND及以上并且已经暂停：同{@link #pause(boolean)}释放所有读取器</li>
+     * </ul>
+     *
+     * @param level ComponentCallbacks2中的TRIM_MEMORY_*
+     * @return 估算释放的字节数，program按二进制的大小估算
+     */
+    public EglFuture<Long> trimMemory(int level) {
+        EglFuture<Long> result = new EglFuture<>();
+        // 命令被取消时（比如已经release）结果也随之取消，命令执行成功时结果已经完成，cancel不会生效
+        run(() -> result.complete(trimMemoryInternal(level)))
+                .addListener(() -> result.cancel(false), Runnable::run);
+        return result;
     }
 
     public SurfaceTexture getInputSurfaceTexture() {
@@ -83,9 +254,9 @@ public class SurfaceBridge {
         inputSurfaceTexture.setDefaultBufferSize(width, height);
     }
 
-    public void putOutputSurface(Surface surface,
-                                 Transform transform) {
-        putOutputSurface(surface, new Size(-1, -1), transform);
+    public EglFuture<Void> putOutputSurface(Surface surface,
+                                            Transform transform) {
+        return putOutputSurface(surface, new Size(-1, -1), transform);
     }
 
     /**
@@ -95,15 +266,37 @@ public class SurfaceBridge {
      * @param surface     用于输出的surface，常来源于SurfaceView或TextureView等。
      * @param surfaceSize 指定输出的大小，不能为空，但是可以为负值。
      * @param transform   用于做输出变换，比如放大缩小、平移、旋转等操作，如果为null表示不做任何变换
+     * @return 在GL线程中生效后完成，同一个surface还没生效的put会被合并，只执行最后一次
+     */
+    public EglFuture<Void> putOutputSurface(Surface surface,
+                                            Size surfaceSize,
+                                            Transform transform) {
+        return putOutputSurface(surface, surfaceSize, transform, FrameThrottle.NONE);
+    }
+
+    /**
+     * @param throttle 输出的帧率限制，被限制的帧不会绘制到该surface
      */
-    public void putOutputSurface(Surface surface,
-                                 Size surfaceSize,
-                                 Transform transform) {
-        run(() -> eglCore.putSurface(surface, surfaceSize, transform));
+    public EglFuture<Void> putOutputSurface(Surface surface,
+                                            Size surfaceSize,
+                                            Transform transform,
+                                            FrameThrottle throttle) {
+        return run(surface, () -> {
+            eglCore.putSurface(surface, surfaceSize, transform, throttle);
+            negotiateInputSize();
+        });
     }
 
+    /**
+     * 会等待GL线程释放该surface后才返回，保证调用方可以安全地销毁surface。
+     * remove不参与合并：如果和put使用同一个key，之后其他线程的put会把排队中的remove合并掉，
+     * 而这里等待的future依然会完成，调用方就会销毁一个GL线程仍在绘制的surface
+     */
     public void removeOutputSurface(Surface surface) {
-        awaitRun(() -> eglCore.removeSurface(surface));
+        awaitRun(() -> {
+            eglCore.removeSurface(surface);
+            negotiateInputSize();
+        });
     }
 
     public void addOnFrameListener(FrameFormat format,
@@ -131,83 +324,599 @@ public class SurfaceBridge {
                                    Transform transform,
                                    OnFrameListener listener,
                                    boolean directBuffer) {
+        addOnFrameListener(format, outputSize, transform,
+                new FrameReaderConfig.Builder().setDirectBuffer(directBuffer).build(), listener);
+    }
+
+    /**
+     * 添加一个Listener用于监听帧输出，并且可以指定帧读取的配置，比如读取后端、buffer数量、usage、dataspace等。
+     *
+     * @param format     输出的格式
+     * @param outputSize 输出的大小，不能为null，但是可以为负值，表示输出原始大小。
+     * @param transform  帧图像的变换，如果不为空会在输出帧之前进行图像变换，一般用于各种缩放适配。
+     * @param config     ImageReader的配置，不能为null
+     * @param listener   监听器，不同的格式可以公用一个监听器。
+     *                   格式、大小、变换（同一个对象）和配置都相同的监听会共用一个读取器，每帧只绘制和读取一次，
+     *                   再在同一个分发任务中依次回调，所以其中一个监听耗时会影响同组的其他监听。
+     * @return 该监听对应的绘制统计，可用于观察GPU在该ImageReader上的阻塞情况，共用读取器的监听返回同一个统计，
+     * listener为null时返回null
+     */
+    public FrameReaderStats addOnFrameListener(FrameFormat format,
+                                               Size outputSize,
+                                               Transform transform,
+                                               FrameReaderConfig config,
+                                               OnFrameListener listener) {
         if (listener == null) {
-            return;
+            return null;
         }
         removeOnFrameListener(listener);
+        SharedFrameListener.Key key = new SharedFrameListener.Key(format, outputSize, transform, config);
+        SharedFrameListener shared;
+        boolean isNew;
+        synchronized (sharedListenerMap) {
+            shared = sharedListenerMap.get(key);
+            isNew = shared == null;
+            if (isNew) {
+                shared = new SharedFrameListener(key);
+                sharedListenerMap.put(key, shared);
+            }
+            shared.add(listener);
+            listenerShareMap.put(listener, shared);
+        }
+        if (isNew) {
+            SharedFrameListener frameListener = shared;
+            addFrameReader(shared, format, outputSize, transform, config, shared.getStats(),
+                    (reader, handler) -> reader.setOnFrameListener(frameListener, handler));
+        }
+        return shared.getStats();
+    }
+
+    /**
+     * 同{@link #addOnFrameListener(FrameFormat, Size, Transform, OnFrameListener)}，回调在指定的executor中执行。
+     * 同一个监听的回调保证按顺序执行，上一帧还没回调完时新帧会被丢弃。
+     */
+    public FrameReaderStats addOnFrameListener(FrameFormat format,
+                                               Size outputSize,
+                                               Transform transform,
+                                               Executor executor,
+                                               OnFrameListener listener) {
+        return addOnFrameListener(format, outputSize, transform,
+                new FrameReaderConfig.Builder().setCallbackExecutor(executor).build(), listener);
+    }
+
+    /**
+     * 共用读取器的最后一个监听被移除时才会关闭读取器
+     */
+    public void removeOnFrameListener(OnFrameListener listener) {
+        SharedFrameListener shared;
+        synchronized (sharedListenerMap) {
+            shared = listenerShareMap.remove(listener);
+            if (shared == null || shared.remove(listener) > 0) {
+                return;
+            }
+            sharedListenerMap.remove(shared.getKey());
+        }
+        removeFrameReader(shared);
+    }
+
+    public void addOnFrameImageListener(FrameFormat format,
+                                        OnFrameImageListener listener) {
+        addOnFrameImageListener(format, new Size(-1, -1), null, listener);
+    }
+
+    /**
+     * 添加一个零拷贝的帧监听，回调的是ImageReader中Image的租借视图，内部不会做任何内存拷贝。
+     * 适用于高分辨率下的帧读取，使用者需要自己根据rowStride处理每行末尾的padding，并且在用完后调用release。
+     *
+     * @param format     输出的格式
+     * @param outputSize 输出的大小，不能为null，但是可以为负值，表示输出原始大小。
+     * @param transform  帧图像的变换，如果不为空会在输出帧之前进行图像变换，一般用于各种缩放适配。
+     * @param listener   监听器，不同的格式可以公用一个监听器。
+     */
+    public void addOnFrameImageListener(FrameFormat format,
+                                        Size outputSize,
+                                        Transform transform,
+                                        OnFrameImageListener listener) {
+        addOnFrameImageListener(format, outputSize, transform,
+                new FrameReaderConfig.Builder().setMaxImages(3).build(), listener);
+    }
+
+    /**
+     * 同{@link #addOnFrameImageListener(FrameFormat, Size, Transform, OnFrameImageListener)}，
+     * 可以同时租借的Image数量为 config.maxImages - 2（最少为1）。
+     */
+    public FrameReaderStats addOnFrameImageListener(FrameFormat format,
+                                                    Size outputSize,
+                                                    Transform transform,
+                                                    FrameReaderConfig config,
+                                                    OnFrameImageListener listener) {
+        if (listener == null) {
+            return null;
+        }
+        if (!isImageReaderBackend(config)) {
+            return null;
+        }
+        return addFrameReader(listener, format, outputSize, transform, config,
+                (reader, handler) -> reader.setOnFrameImageListener(listener, handler));
+    }
+
+    public void removeOnFrameImageListener(OnFrameImageListener listener) {
+        removeFrameReader(listener);
+    }
+
+    public void addOnHardwareBufferListener(FrameFormat format,
+                                            OnHardwareBufferListener listener) {
+        addOnHardwareBufferListener(format, new Size(-1, -1), null, listener);
+    }
+
+    /**
+     * 添加一个HardwareBuffer的帧监听，帧数据留在GPU内存中，不会读回CPU，适用于交给其他GPU或者NNAPI的场景。
+     * 默认的usage为 GPU_COLOR_OUTPUT | GPU_SAMPLED_IMAGE，需要Android P及以上。
+     *
+     * @param format     输出的格式
+     * @param outputSize 输出的大小，不能为null，但是可以为负值，表示输出原始大小。
+     * @param transform  帧图像的变换，如果不为空会在输出帧之前进行图像变换，一般用于各种缩放适配。
+     * @param listener   监听器，不同的格式可以公用一个监听器。
+     */
+    public void addOnHardwareBufferListener(FrameFormat format,
+                                            Size outputSize,
+                                            Transform transform,
+                                            OnHardwareBufferListener listener) {
+        FrameReaderConfig.Builder builder = new FrameReaderConfig.Builder().setMaxImages(3);
+        // usage的常量在Android P才加入，低版本下会在下面的addOnHardwareBufferListener中直接失败，不需要设置
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+            builder.setUsage(HardwareBuffer.USAGE_GPU_COLOR_OUTPUT | HardwareBuffer.USAGE_GPU_SAMPLED_IMAGE);
+        }
+        addOnHardwareBufferListener(format, outputSize, transform, builder.build(), listener);
+    }
+
+    public FrameReaderStats addOnHardwareBufferListener(FrameFormat format,
+                                                        Size outputSize,
+                                                        Transform transform,
+                                                        FrameReaderConfig config,
+                                                        OnHardwareBufferListener listener) {
+        if (listener == null) {
+            return null;
+        }
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.P) {
+            Log.w(TAG, "addOnHardwareBufferListener fail",
+                    new UnsupportedOperationException("require Android P, sdk = " + Build.VERSION.SDK_INT));
+            return null;
+        }
+        if (!isImageReaderBackend(config)) {
+            return null;
+        }
+        return addFrameReader(listener, format, outputSize, transform, config,
+                (reader, handler) -> reader.setOnFrameImageListener(listener::onFrame, handler));
+    }
+
+    public void removeOnHardwareBufferListener(OnHardwareBufferListener listener) {
+        removeFrameReader(listener);
+    }
+
+    public void addOnFrameRingListener(FrameFormat format,
+                                       int capacity,
+                                       FrameRing.Policy policy,
+                                       OnFrameRingListener listener) {
+        addOnFrameRingListener(format, new Size(-1, -1), null, capacity, policy, listener);
+    }
+
+    /**
+     * 添加一个帧环监听，每一帧会被拷贝到预分配的帧环中，使用者可以异步地持有多帧，用完后归还即可，无需再次拷贝。
+     *
+     * @param format     输出的格式
+     * @param outputSize 输出的大小，不能为null，但是可以为负值，表示输出原始大小。
+     * @param transform  帧图像的变换，如果不为空会在输出帧之前进行图像变换，一般用于各种缩放适配。
+     * @param capacity   帧环的帧数，内部会一次性分配 capacity * 帧大小 的连续内存，总大小超过2GB时创建读取器会抛出IllegalArgumentException。
+     * @param policy     帧环耗尽时的处理策略
+     * @param listener   监听器，不同的格式可以公用一个监听器。
+     */
+    public void addOnFrameRingListener(FrameFormat format,
+                                       Size outputSize,
+                                       Transform transform,
+                                       int capacity,
+                                       FrameRing.Policy policy,
+                                       OnFrameRingListener listener) {
+        addOnFrameRingListener(format, outputSize, transform, FrameReaderConfig.DEFAULT, capacity, policy, listener);
+    }
+
+    public FrameReaderStats addOnFrameRingListener(FrameFormat format,
+                                                   Size outputSize,
+                                                   Transform transform,
+                                                   FrameReaderConfig config,
+                                                   int capacity,
+                                                   FrameRing.Policy policy,
+                                                   OnFrameRingListener listener) {
+        if (listener == null) {
+            return null;
+        }
+        if (!isImageReaderBackend(config)) {
+            return null;
+        }
+        return addFrameReader(listener, format, outputSize, transform, config,
+                (reader, handler) -> reader.setOnFrameRingListener(listener, capacity, policy, handler));
+    }
+
+    public void removeOnFrameRingListener(OnFrameRingListener listener) {
+        removeFrameReader(listener);
+    }
+
+    public EglFuture<Void> setBackgroundColor(int backgroundColor) {
+        return run("setBackgroundColor", () -> eglCore.setBackgroundColor(backgroundColor));
+    }
+
+    public EglFuture<Void> setYUVColorSpace(EglYUVColorSpace colorSpace) {
+        return run("setYUVColorSpace", () -> eglCore.setYUVColorSpace(colorSpace));
+    }
+
+    /**
+     * 是否先把输入帧绘制一次到中间纹理，再由所有输出从中间纹理采样，输出越多收益越大，默认关闭。
+     * 有输出的尺寸小于输入的一半时，不论是否开启都会使用中间纹理，并通过mipmap缩小
+     */
+    public EglFuture<Void> setIntermediateTextureEnabled(boolean enabled) {
+        return run("setIntermediateTextureEnabled", () -> eglCore.setIntermediateTextureEnabled(enabled));
+    }
+
+    /**
+     * 开启后根据所有输出计算能满足它们的最小输入大小，并对输入的SurfaceTexture调用setDefaultBufferSize，
+     * 避免生产者按远大于输出的分辨率生产帧，默认关闭。
+     * <p>
+     * 协商以{@link #setDefaultInputBufferSize}设置的大小为上限，保持其宽高比，只会缩小不会放大；没有设置时不生效。
+     * 参与协商的是输出Surface的实际大小和指定了输出大小的帧监听，跟随输入大小的帧监听不参与。
+     * 输出的变换（比如裁剪放大）不参与计算，需要更高输入分辨率的输出请关闭协商。关闭时会恢复设置的默认输入大小。
+     *
+     * @param listener 协商出的大小变化时回调，可以为null
+     */
+    public EglFuture<Void> setInputSizeNegotiation(boolean enabled, OnInputSizeNegotiatedListener listener) {
+        return run("setInputSizeNegotiation", () -> {
+            isInputSizeNegotiated = enabled;
+            inputSizeNegotiatedListener = listener;
+            if (enabled) {
+                negotiateInputSize();
+            } else if (negotiatedInputSize != null) {
+                negotiatedInputSize = null;
+                if (requestedInputSize != null) {
+                    ((InnerSurfaceTexture) inputSurfaceTexture).applyDefaultBufferSize(
+                            requestedInputSize.getWidth(), requestedInputSize.getHeight());
+                }
+            }
+        });
+    }
+
+    public EglFuture<Void> prewarm(Collection<FrameFormat> formats, Collection<Size> sizes) {
+        return prewarm(formats, sizes, FrameReaderConfig.DEFAULT);
+    }
+
+    /**
+     * 预热，提前编译指定格式的program，并按每种格式、每个大小创建好帧读取器，放入闲置读取器池中暂停绘制。
+     * 之后添加格式和配置都相同的帧监听时，如果读取器的大小一致就直接使用，第一帧没有额外的初始化开销。
+     * 预热的读取器受{@link #setIdleReaderPoolSize(long)}的内存上限限制，每种格式最多保留2个大小，超出时最久的会被释放。
+     * 输出Surface使用RGBA_8888，需要预热输出Surface时在formats中加入RGBA_8888。
+     *
+     * @param formats 需要预热的格式
+     * @param sizes   帧读取器的大小，即帧监听的输出大小，没有指定输出大小的监听为输入大小；为空时只编译program
+     * @param config  帧监听将要使用的配置
+     */
+    public EglFuture<Void> prewarm(Collection<FrameFormat> formats,
+                                   Collection<Size> sizes,
+                                   FrameReaderConfig config) {
+        List<FrameFormat> formatList = new ArrayList<>(formats);
+        List<Size> sizeList = new ArrayList<>(sizes);
+        return run(() -> {
+            for (FrameFormat format : formatList) {
+                if (!eglCore.prewarmProgram(format, config.getBackend())) {
+                    Log.w(TAG, "prewarm fail: format = " + format);
+                    continue;
+                }
+                EglFrameReaderPool.PrewarmKey key = new EglFrameReaderPool.PrewarmKey(format, config);
+                for (Size size : sizeList) {
+                    EglFrameReader reader;
+                    try {
+                        reader = eglCore.createFrameReader(format, size, config);
+                    } catch (Exception e) {
+                        Log.w(TAG, "prewarm fail: format = " + format + ", size = " + size + ", " + e);
+                        continue;
+                    }
+                    if (reader == null) {
+                        continue;
+                    }
+                    eglCore.putFrameReader(reader, null, null, config.getFrameThrottle());
+                    eglCore.setFrameReaderSuspended(reader, true);
+                    readerPool.recycle(key, reader, r -> {
+                        eglCore.removeFrameReader(r);
+                        r.close();
+                    });
+                }
+            }
+        });
+    }
+
+    /**
+     * 输入大小变化时，帧监听旧的读取器不会立即释放，而是暂停绘制后放入闲置池，切回最近用过的大小时直接复用，
+     * 避免旋转屏幕等场景下尺寸来回切换导致的重复分配和丢帧。每个监听最多保留2个闲置的读取器。
+     *
+     * @param maxBytes 所有闲置读取器的内存上限，超出时释放最久没用的，为0时不保留，默认为{@link #DEFAULT_IDLE_READER_POOL_SIZE}
+     */
+    public EglFuture<Void> setIdleReaderPoolSize(long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("maxBytes < 0: " + maxBytes);
+        }
+        return run("setIdleReaderPoolSize", () -> readerPool.setMaxIdleBytes(maxBytes));
+    }
+
+    /**
+     * @return GL命令队列的统计，包括队列深度和命令的等待时间
+     */
+    public CommandQueueStats getCommandQueueStats() {
+        return commandQueue.getStats();
+    }
+
+    /**
+     * 是否统计GPU耗时，开启后通过GL_EXT_disjoint_timer_query记录每个输出Surface、每个帧监听以及每种格式的program的GPU耗时，
+     * 结果见{@link #getStats()}，默认关闭。查询结果在之后的帧中非阻塞地取回，不会让GL线程等待GPU。
+     * 设备不支持该扩展时不会开启，可以通过{@link SurfaceBridgeStats#isGpuTimerEnabled()}确认
+     */
+    public EglFuture<Void> setGpuTimerEnabled(boolean enabled) {
+        return run("setGpuTimerEnabled", () -> eglCore.setGpuTimerEnabled(enabled));
+    }
+
+    /**
+     * @return 当前的统计快照，GPU耗时为最近{@link GpuTimeStats#WINDOW_SIZE}次绘制的分位数，可以在任意线程调用
+     */
+    public SurfaceBridgeStats getStats() {
+        Map<Surface, GpuTimeStats> surfaceGpuTimes = new HashMap<>();
+        Map<FrameReaderStats, GpuTimeStats> readerGpuTimes = new HashMap<>();
+        Map<FrameFormat, GpuTimeStats> formatGpuTimes = new HashMap<>();
+        EglGpuTimer gpuTimer = eglCore.getGpuTimer();
+        if (gpuTimer != null) {
+            for (Map.Entry<Object, GpuTimeStats> entry : gpuTimer.snapshotOutputs().entrySet()) {
+                if (entry.getKey() instanceof Surface) {
+                    surfaceGpuTimes.put((Surface) entry.getKey(), entry.getValue());
+                } else if (entry.getKey() instanceof FrameReaderStats) {
+                    readerGpuTimes.put((FrameReaderStats) entry.getKey(), entry.getValue());
+                }
+            }
+            formatGpuTimes.putAll(gpuTimer.snapshotFormats());
+        }
+        return new SurfaceBridgeStats(commandQueue.getStats(), gpuTimer != null,
+                surfaceGpuTimes, readerGpuTimes, formatGpuTimes);
+    }
+
+    private FrameReaderStats addFrameReader(Object key,
+                                            FrameFormat format,
+                                            Size outputSize,
+                                            Transform transform,
+                                            FrameReaderConfig config,
+                                            FrameReaderBinder binder) {
+        return addFrameReader(key, format, outputSize, transform, config, new FrameReaderStats(), binder);
+    }
+
+    private FrameReaderStats addFrameReader(Object key,
+                                            FrameFormat format,
+                                            Size outputSize,
+                                            Transform transform,
+                                            FrameReaderConfig config,
+                                            FrameReaderStats stats,
+                                            FrameReaderBinder binder) {
+        removeFrameReader(key);
         run(() -> {
             EglFrameReaderHelper imageReader = new EglFrameReaderHelper(
-                    format, outputSize, directBuffer, new EglFrameReaderHelper.Adapter() {
+                    format, outputSize, config, dispatcherPool, readerPool, new EglFrameReaderHelper.Adapter() {
                 @Override
-                public EglFrameReader onCreate(FrameFormat format, Size size, boolean directBuffer) {
-                    EglFrameReader reader = eglCore.createFrameReader(format, size, directBuffer);
-                    run(() -> eglCore.putFrameReader(reader, transform));
+                public EglFrameReader onCreate(FrameFormat format, Size size, FrameReaderConfig config) {
+                    EglFrameReader reader = eglCore.createFrameReader(format, size, config);
+                    onAttach(reader);
                     return reader;
                 }
 
+                @Override
+                public void onAttach(EglFrameReader reader) {
+                    run(() -> eglCore.putFrameReader(reader, transform, stats, config.getFrameThrottle()));
+                }
+
                 @Override
                 public void onClose(EglFrameReader reader) {
                     run(() -> eglCore.removeFrameReader(reader));
                 }
 
                 @Override
-                public void onFrame(ByteBuffer frame, Size resolution, FrameFormat format) {
-                    listener.onFrame(frame, resolution, format);
+                public void onBind(EglFrameReader reader, Handler dispatcherHandler) {
+                    binder.bind(reader, dispatcherHandler);
+                }
+
+                @Override
+                public void onActiveChange(EglFrameReader reader, boolean active) {
+                    run(() -> eglCore.setFrameReaderSuspended(reader, !active));
                 }
             });
-            imageReader.updateInputSize(inputSize);
-            onFrameListenerMap.put(listener, imageReader);
+            if (isReaderReleased) {
+                // 指定了输出大小时构造中就会创建读取器
+                imageReader.releaseReader();
+            } else {
+                imageReader.updateInputSize(inputSize);
+            }
+            onFrameListenerMap.put(key, imageReader);
+            negotiateInputSize();
         });
+        return stats;
     }
 
-    public void removeOnFrameListener(OnFrameListener listener) {
+    private static boolean isImageReaderBackend(FrameReaderConfig config) {
+        if (config.getBackend() != FrameReaderConfig.Backend.IMAGE_READER) {
+            Log.w(TAG, "addFrameReader fail", new UnsupportedOperationException(
+                    "only OnFrameListener support backend: " + config.getBackend()));
+            return false;
+        }
+        return true;
+    }
+
+    private void removeFrameReader(Object key) {
         awaitRun(() -> {
-            EglFrameReaderHelper helper = onFrameListenerMap.remove(listener);
+            EglFrameReaderHelper helper = onFrameListenerMap.remove(key);
             if (helper != null) {
                 helper.close();
+                negotiateInputSize();
             }
         });
     }
 
-    public void setBackgroundColor(int backgroundColor) {
-        run(() -> eglCore.setBackgroundColor(backgroundColor));
-    }
-
-    public void setYUVColorSpace(EglYUVColorSpace colorSpace) {
-        run(() -> eglCore.setYUVColorSpace(colorSpace));
-    }
-
     private void onInputSizeChange(int width, int height) {
         inputSize = new Size(width, height);
         Log.i(TAG, "onInputSizeChange: " + width + " x " + height);
+        if (isReaderReleased) {
+            // 暂停时释放了读取器，恢复时再按最新的输入大小创建
+            return;
+        }
         for (EglFrameReaderHelper imageReader : onFrameListenerMap.values()) {
             imageReader.updateInputSize(inputSize);
         }
     }
 
+    private long trimMemoryInternal(int level) {
+        long freedBytes = readerPool.trim(0);
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            for (EglFrameReaderHelper helper : onFrameListenerMap.values()) {
+                freedBytes += helper.releaseFrameBuffer();
+            }
+            freedBytes += eglCore.trimMemory(isPaused);
+        }
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND && isPaused) {
+            freedBytes += releaseReaders();
+        }
+        Log.i(TAG, "trimMemory: level = " + level + ", freedBytes = " + freedBytes);
+        return freedBytes;
+    }
+
+    /**
+     * 释放所有帧监听的读取器和闲置读取器池，恢复时再重新创建，只在暂停时调用
+     */
+    private long releaseReaders() {
+        if (isReaderReleased) {
+            return 0;
+        }
+        long freedBytes = readerPool.trim(0);
+        for (EglFrameReaderHelper helper : onFrameListenerMap.values()) {
+            freedBytes += helper.releaseReader();
+        }
+        isReaderReleased = true;
+        return freedBytes;
+    }
+
+    private void negotiateInputSize() {
+        if (!isInputSizeNegotiated || requestedInputSize == null) {
+            return;
+        }
+        Size size = computeNegotiatedInputSize();
+        if (size.equals(negotiatedInputSize)) {
+            return;
+        }
+        Log.i(TAG, "negotiateInputSize: " + requestedInputSize + " -> " + size);
+        negotiatedInputSize = size;
+        ((InnerSurfaceTexture) inputSurfaceTexture).applyDefaultBufferSize(size.getWidth(), size.getHeight());
+        if (inputSizeNegotiatedListener != null) {
+            inputSizeNegotiatedListener.onInputSizeNegotiated(size);
+        }
+    }
+
+    /**
+     * 按长边、短边分别比较，输出旋转了90度时也能正确计算
+     */
+    private Size computeNegotiatedInputSize() {
+        int requestedWidth = requestedInputSize.getWidth();
+        int requestedHeight = requestedInputSize.getHeight();
+        int requestedLong = Math.max(requestedWidth, requestedHeight);
+        int requestedShort = Math.min(requestedWidth, requestedHeight);
+        if (requestedShort <= 0) {
+            return requestedInputSize;
+        }
+        List<Size> outputSizes = eglCore.getWindowSurfaceSizes();
+        for (EglFrameReaderHelper helper : onFrameListenerMap.values()) {
+            Size outputSize = helper.getOutputSize();
+            if (outputSize.getWidth() > 0 && outputSize.getHeight() > 0) {
+                outputSizes.add(outputSize);
+            }
+        }
+        float scale = 0;
+        for (Size outputSize : outputSizes) {
+            int outputLong = Math.max(outputSize.getWidth(), outputSize.getHeight());
+            int outputShort = Math.min(outputSize.getWidth(), outputSize.getHeight());
+            scale = Math.max(scale, Math.max(
+                    (float) outputLong / requestedLong, (float) outputShort / requestedShort));
+        }
+        if (scale <= 0 || scale >= 1) {
+            return requestedInputSize;
+        }
+        // 向上取偶数，YUV输出和大部分编码器都要求偶数尺寸
+        int width = Math.min(requestedWidth, ((int) Math.ceil(requestedWidth * scale) + 1) & ~1);
+        int height = Math.min(requestedHeight, ((int) Math.ceil(requestedHeight * scale) + 1) & ~1);
+        return new Size(width, height);
+    }
+
     private void drawSurface(SurfaceTexture surfaceTexture) {
+        // 先执行排队的命令，保证配置修改在下一帧之前生效
+        commandQueue.drain();
         try {
             surfaceTexture.updateTexImage();
+            if (isPaused) {
+                eglCore.pollGpuTimer();
+                return;
+            }
             surfaceTexture.getTransformMatrix(textureMatrix);
-            texSize[0] = 0;
-            texSize[1] = 0;
-            if (EglTool.getRealOESTexSize(oesTextureId, textureMatrix, texSize)) {
-                if (texSize[0] != inputSize.getWidth() || texSize[1] != inputSize.getHeight()) {
-                    onInputSizeChange(texSize[0], texSize[1]);
+            if (shouldQueryTexSize()) {
+                texSize[0] = 0;
+                texSize[1] = 0;
+                if (EglTool.getRealOESTexSize(oesTextureId, textureMatrix, texSize, texSizeVector)) {
+                    if (texSize[0] != inputSize.getWidth() || texSize[1] != inputSize.getHeight()) {
+                        onInputSizeChange(texSize[0], texSize[1]);
+                    }
                 }
             }
-            eglCore.drawOESTexture(oesTextureId, inputSize, textureMatrix);
+            eglCore.drawOESTexture(oesTextureId, inputSize, textureMatrix, surfaceTexture.getTimestamp());
         } catch (Exception e) {
             Log.w(TAG, "drawSurface fail: " + e, e);
         }
     }
 
-    private void run(Runnable runnable) {
-        Util.runOn(eglHandler, runnable, false);
+    private EglFuture<Void> run(Runnable runnable) {
+        return commandQueue.post(runnable);
+    }
+
+    private EglFuture<Void> run(Object coalesceKey, Runnable runnable) {
+        return commandQueue.post(coalesceKey, runnable);
     }
 
     private void awaitRun(Runnable runnable) {
-        Util.runOn(eglHandler, runnable, true);
+        await(run(runnable));
+    }
+
+    private static void await(EglFuture<Void> future) {
+        try {
+            future.get();
+        } catch (ExecutionException | CancellationException e) {
+            Log.w(TAG, "await fail: " + e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private interface FrameReaderBinder {
+        void bind(EglFrameReader reader, Handler dispatcherHandler);
+    }
+
+    /**
+     * 查询纹理尺寸需要绑定纹理和glGetTexLevelParameteriv，可能导致CPU/GPU同步。
+     * 非调试模式下只在第一帧、变换矩阵变化、设置了默认尺寸后查询，另外按间隔采样查询一次，用于发现生产者修改了buffer尺寸
+     */
+    private boolean shouldQueryTexSize() {
+        if (EglTool.isDebugMode()
+                || inputSize.getWidth() <= 0
+                || --texSizeQueryCountdown <= 0
+                || !Arrays.equals(textureMatrix, lastTextureMatrix)) {
+            System.arraycopy(textureMatrix, 0, lastTextureMatrix, 0, textureMatrix.length);
+            texSizeQueryCountdown = EglCore.FRAME_SAMPLE_INTERVAL;
+            return true;
+        }
+        return false;
     }
 
     private class InnerSurfaceTexture extends SurfaceTexture {
@@ -218,12 +927,26 @@ public class SurfaceBridge {
 
         @Override
         public void setDefaultBufferSize(int width, int height) {
-            run(() -> {
-                super.setDefaultBufferSize(width, height);
-                onInputSizeChange(width, height);
+            run("setDefaultBufferSize", () -> {
+                requestedInputSize = new Size(width, height);
+                if (isInputSizeNegotiated) {
+                    negotiatedInputSize = null;
+                    negotiateInputSize();
+                } else {
+                    applyDefaultBufferSize(width, height);
+                }
             });
         }
 
+        /**
+         * 只能在GL线程中调用
+         */
+        void applyDefaultBufferSize(int width, int height) {
+            super.setDefaultBufferSize(width, height);
+            onInputSizeChange(width, height);
+            texSizeQueryCountdown = 0;
+        }
+
         @Override
         public void setOnFrameAvailableListener(OnFrameAvailableListener listener, Handler handler) {
             throw new UnsupportedOperationException();
@@ -0,0 +1,76 @@
+package io.zxingye.surfacebridge;
+
+import android.view.Surface;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * SurfaceBridge某一时刻的统计快照，见{@link SurfaceBridge#getStats()}。
+ * GPU耗时只在{@link SurfaceBridge#setGpuTimerEnabled(boolean)}开启后才有数据，单位纳秒。
+ */
+public class SurfaceBridgeStats {
+
+    private final CommandQueueStats commandQueueStats;
+    private final boolean isGpuTimerEnabled;
+    private final Map<Surface, GpuTimeStats> surfaceGpuTimes;
+    private final Map<FrameReaderStats, GpuTimeStats> readerGpuTimes;
+    private final Map<FrameFormat, GpuTimeStats> formatGpuTimes;
+
+    SurfaceBridgeStats(CommandQueueStats commandQueueStats,
+                       boolean isGpuTimerEnabled,
+                       Map<Surface, GpuTimeStats> surfaceGpuTimes,
+                       Map<FrameReaderStats, GpuTimeStats> readerGpuTimes,
+                       Map<FrameFormat, GpuTimeStats> formatGpuTimes) {
+        this.commandQueueStats = commandQueueStats;
+        this.isGpuTimerEnabled = isGpuTimerEnabled;
+        this.surfaceGpuTimes = Collections.unmodifiableMap(surfaceGpuTimes);
+        this.readerGpuTimes = Collections.unmodifiableMap(readerGpuTimes);
+        this.formatGpuTimes = Collections.unmodifiableMap(formatGpuTimes);
+    }
+
+    /**
+     * @return GL命令队列的统计，数据是实时的
+     */
+    public CommandQueueStats getCommandQueueStats() {
+        return commandQueueStats;
+    }
+
+    /**
+     * @return 取快照时GPU计时是否开启
+     */
+    public boolean isGpuTimerEnabled() {
+        return isGpuTimerEnabled;
+    }
+
+    /**
+     * @return 每个输出Surface的绘制耗时
+     */
+    public Map<Surface, GpuTimeStats> getSurfaceGpuTimes() {
+        return surfaceGpuTimes;
+    }
+
+    /**
+     * @return 每个帧监听的绘制耗时，key为添加帧监听时返回的统计对象
+     */
+    public Map<FrameReaderStats, GpuTimeStats> getReaderGpuTimes() {
+        return readerGpuTimes;
+    }
+
+    /**
+     * @return 每种格式的program的绘制耗时，包括该格式所有的输出
+     */
+    public Map<FrameFormat, GpuTimeStats> getFormatGpuTimes() {
+        return formatGpuTimes;
+    }
+
+    @Override
+    public String toString() {
+        return "SurfaceBridgeStats{" +
+                "isGpuTimerEnabled=" + isGpuTimerEnabled +
+                ", surfaceGpuTimes=" + surfaceGpuTimes +
+                ", readerGpuTimes=" + readerGpuTimes +
+                ", formatGpuTimes=" + formatGpuTimes +
+                '}';
+    }
+}
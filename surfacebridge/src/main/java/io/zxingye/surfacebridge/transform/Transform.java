@@ -2,6 +2,10 @@ package io.zxingye.surfacebridge.transform;
 
 import android.graphics.Matrix;
 
+/**
+ * 把纹理映射到视口的变换。每个输出会缓存变换后的顶点数据，只有纹理尺寸、视口大小变化时才会在GL线程中重新调用，
+ * 所以实现应当是不可变的；需要改变映射时，用新的变换重新设置该输出。
+ */
 public interface Transform {
     void transform(Matrix matrix,
                    int texWidth,